@@ -0,0 +1,51 @@
+package uk.ac.ed.acp.cw2.Utilities;
+
+import uk.ac.ed.acp.cw2.model.TransformNormal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact fixed layout for cached transform state (9 bytes, big endian):
+ * <pre>
+ *   [0]    format marker (0xB1)
+ *   [1-4]  version (int32)
+ *   [5-8]  value (float32)
+ * </pre>
+ * Values written by the JSON codec are still decoded, so existing keys can be read while they are
+ * rewritten in the binary format on their next update.
+ */
+public class BinaryTransformStateCodec implements TransformStateCodec {
+    public static final byte FORMAT_MARKER = (byte) 0xB1;
+    public static final int ENCODED_LENGTH = 9;
+
+    private final JsonTransformStateCodec legacyCodec = new JsonTransformStateCodec();
+
+    @Override
+    public byte[] encode(TransformNormal message) {
+        return ByteBuffer.allocate(ENCODED_LENGTH)
+                .put(FORMAT_MARKER)
+                .putInt(message.version)
+                .putFloat(message.value)
+                .array();
+    }
+
+    @Override
+    public TransformNormal decode(String key, byte[] data) {
+        if (data == null) return null;
+        if (data.length != ENCODED_LENGTH || data[0] != FORMAT_MARKER) {
+            // Written before the switch to the binary format
+            return legacyCodec.decode(key, data);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, 1, ENCODED_LENGTH - 1);
+        TransformNormal message = new TransformNormal();
+        message.key = key;
+        message.version = buffer.getInt();
+        message.value = buffer.getFloat();
+        return message;
+    }
+
+    @Override
+    public String name() {
+        return "binary";
+    }
+}
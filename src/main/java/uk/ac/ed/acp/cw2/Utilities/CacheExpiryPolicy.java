@@ -0,0 +1,98 @@
+package uk.ac.ed.acp.cw2.Utilities;
+
+import redis.clients.jedis.params.GetExParams;
+import redis.clients.jedis.params.SetParams;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Expiry settings per key namespace. The namespace of a key is the part before its first ':'
+ * ("transform:ABCD" is in "transform"); keys without one are in the "default" namespace.
+ * <p>
+ * A namespace without its own TTL uses the "*" entry, and keys never expire when neither is set.
+ * In sliding namespaces every read through the cache service pushes the expiry out by the full TTL again,
+ * so keys that are still being used stay cached. Keys in sliding namespaces are not held in the near cache:
+ * a near cache hit would not renew the TTL, and the GETEX that does makes Redis publish an expire event,
+ * which the near cache invalidator would act on by evicting the entry just cached. Every read of a sliding
+ * key is therefore a Redis round trip.
+ */
+public class CacheExpiryPolicy {
+    public static final String DEFAULT_NAMESPACE = "default";
+    public static final String ANY_NAMESPACE = "*";
+
+    private final Map<String, Long> ttlSeconds;
+    private final Set<String> sliding;
+
+    public CacheExpiryPolicy(Map<String, Long> ttlSeconds, Set<String> sliding) {
+        this.ttlSeconds = Map.copyOf(ttlSeconds);
+        this.sliding = Set.copyOf(sliding);
+    }
+
+    /**
+     * Builds a policy from the CACHE_TTL_SECONDS ("namespace=seconds,...") and
+     * CACHE_SLIDING_NAMESPACES ("namespace,...") settings.
+     */
+    public static CacheExpiryPolicy parse(String ttlSeconds, String slidingNamespaces) {
+        Map<String, Long> ttls = new HashMap<>();
+        if (ttlSeconds != null) {
+            for (String entry : ttlSeconds.split(",")) {
+                if (entry.isBlank()) continue;
+                String[] parts = entry.split("=", 2);
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Expected namespace=seconds but got " + entry);
+                }
+                ttls.put(parts[0].trim(), Long.parseLong(parts[1].trim()));
+            }
+        }
+        Set<String> sliding = new HashSet<>();
+        if (slidingNamespaces != null) {
+            for (String namespace : slidingNamespaces.split(",")) {
+                if (!namespace.isBlank()) sliding.add(namespace.trim());
+            }
+        }
+        return new CacheExpiryPolicy(ttls, sliding);
+    }
+
+    public static String namespaceOf(String key) {
+        int separator = key.indexOf(':');
+        return separator > 0 ? key.substring(0, separator) : DEFAULT_NAMESPACE;
+    }
+
+    /**
+     * @return TTL in seconds for the namespace, or 0 if its keys do not expire
+     */
+    public long ttlSecondsFor(String namespace) {
+        Long ttl = ttlSeconds.getOrDefault(namespace, ttlSeconds.get(ANY_NAMESPACE));
+        return ttl == null ? 0 : ttl;
+    }
+
+    public long ttlSeconds(String key) {
+        return ttlSecondsFor(namespaceOf(key));
+    }
+
+    public boolean isSlidingFor(String namespace) {
+        return (sliding.contains(namespace) || sliding.contains(ANY_NAMESPACE)) && ttlSecondsFor(namespace) > 0;
+    }
+
+    public boolean isSliding(String key) {
+        return isSlidingFor(namespaceOf(key));
+    }
+
+    /**
+     * @return SET parameters applying the key's TTL, or null if it does not expire
+     */
+    public SetParams setParams(String key) {
+        long ttl = ttlSeconds(key);
+        return ttl > 0 ? SetParams.setParams().ex(ttl) : null;
+    }
+
+    /**
+     * @return GETEX parameters renewing the key's TTL, or null if reads do not extend it
+     */
+    public GetExParams getExParams(String key) {
+        return isSliding(key) ? GetExParams.getExParams().ex(ttlSeconds(key)) : null;
+    }
+}
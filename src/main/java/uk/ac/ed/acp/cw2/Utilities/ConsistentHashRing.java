@@ -0,0 +1,59 @@
+package uk.ac.ed.acp.cw2.Utilities;
+
+import redis.clients.jedis.util.Hashing;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring mapping keys to nodes. Each node is placed on the ring at several virtual points so
+ * keys spread evenly, and adding or removing a node only moves the keys that node owned.
+ * <p>
+ * As in Redis Cluster, only the part of a key inside the first {...} hash tag is hashed when present,
+ * so related keys can be kept on the same node.
+ */
+public class ConsistentHashRing<T> {
+    private static final int VIRTUAL_NODES = 160;
+
+    private final TreeMap<Long, T> ring = new TreeMap<>();
+    private final List<T> nodes;
+
+    public ConsistentHashRing(Collection<T> nodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("Hash ring needs at least one node");
+        }
+        this.nodes = List.copyOf(nodes);
+        for (T node : this.nodes) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(Hashing.MURMUR_HASH.hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    public T nodeFor(String key) {
+        long hash = Hashing.MURMUR_HASH.hash(hashTag(key));
+        SortedMap<Long, T> tail = ring.tailMap(hash);
+        return tail.isEmpty() ? ring.firstEntry().getValue() : tail.get(tail.firstKey());
+    }
+
+    public List<T> getNodes() {
+        return nodes;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    public static String hashTag(String key) {
+        int start = key.indexOf('{');
+        if (start >= 0) {
+            int end = key.indexOf('}', start + 1);
+            if (end > start + 1) {
+                return key.substring(start + 1, end);
+            }
+        }
+        return key;
+    }
+}
@@ -0,0 +1,39 @@
+package uk.ac.ed.acp.cw2.Utilities;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ed.acp.cw2.model.TransformNormal;
+
+/**
+ * Original cache format: the message as a JSON object, e.g. {"key":"abc","version":3,"value":12.5}.
+ */
+public class JsonTransformStateCodec implements TransformStateCodec {
+    private static final Logger logger = LoggerFactory.getLogger(JsonTransformStateCodec.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Override
+    public byte[] encode(TransformNormal message) {
+        try {
+            return objectMapper.writeValueAsBytes(message.toJson(objectMapper));
+        } catch (Exception e) {
+            throw new IllegalStateException("Error encoding cache value for key " + message.key, e);
+        }
+    }
+
+    @Override
+    public TransformNormal decode(String key, byte[] data) {
+        if (data == null) return null;
+        try {
+            return objectMapper.readValue(data, TransformNormal.class);
+        } catch (Exception e) {
+            logger.error("Error decoding json from cache, key: {}", key);
+            return null;
+        }
+    }
+
+    @Override
+    public String name() {
+        return "json";
+    }
+}
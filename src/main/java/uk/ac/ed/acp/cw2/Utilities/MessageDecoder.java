@@ -0,0 +1,39 @@
+package uk.ac.ed.acp.cw2.Utilities;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Turns a message read from a broker into a typed message, validating it in the same parse. The receive
+ * methods of the broker services skip messages the decoder rejects, and only accepted messages count
+ * towards a read's message count.
+ */
+@FunctionalInterface
+public interface MessageDecoder<T> {
+    /**
+     * @return the decoded message, or null if the message is invalid and should be skipped
+     */
+    T decode(String message);
+
+    /**
+     * Decodes a message from its raw bytes. By default they are read as UTF-8 text and passed to
+     * {@link #decode(String)}; decoders that can parse the bytes directly override this to skip the string.
+     */
+    default T decode(byte[] message) {
+        return decode(message == null ? null : new String(message, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Accepts every message as it is.
+     */
+    MessageDecoder<String> RAW = message -> message;
+
+    /**
+     * Accepts messages that are JSON objects with every required field, unchanged; every message if
+     * requiredFields is null.
+     */
+    static MessageDecoder<String> requiring(List<String> requiredFields) {
+        if (requiredFields == null) return RAW;
+        return message -> Parser.isValidMessage(message, requiredFields) ? message : null;
+    }
+}
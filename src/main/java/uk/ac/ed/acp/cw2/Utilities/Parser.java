@@ -53,29 +53,51 @@ public class Parser {
             return null;
         }
         logger.debug("Processing node {}", jsonNode);
-        if (jsonNode.has("key")){
-            // Transform packet
-            String key = jsonNode.get("key").asText();
-            if (jsonNode.has("version") && jsonNode.has("value")){
-                // Normal
-                TransformNormal message = new TransformNormal();
-                message.key = key;
-                message.version = jsonNode.get("version").asInt();
-                message.value = new BigDecimal(jsonNode.get("value").asText()).floatValue();
-                return message;
+        TransformMessage message = transformMessageOf(jsonNode);
+        if (message == null){
+            throw new RuntimeException();
+        }
+        return message;
+    }
+
+    /**
+     * Decoder for transform messages: a single parse checks for the key and builds the message.
+     *
+     * @return the message, or null if it is not JSON, has no key or has a malformed value
+     */
+    public static TransformMessage decodeTransformMessage(String messageString){
+        try{
+            return transformMessageOf(objectMapper.readTree(messageString));
+        } catch (Exception e){
+            logger.error("Error decoding transform message {}: {}", messageString, e.getMessage());
+            return null;
+        }
+    }
+
+    // Null if the node is not a transform packet
+    private static TransformMessage transformMessageOf(JsonNode jsonNode){
+        if (jsonNode == null || !jsonNode.has("key")){
+            return null;
+        }
+        // Transform packet
+        String key = jsonNode.get("key").asText();
+        if (jsonNode.has("version") && jsonNode.has("value")){
+            // Normal
+            TransformNormal message = new TransformNormal();
+            message.key = key;
+            message.version = jsonNode.get("version").asInt();
+            message.value = new BigDecimal(jsonNode.get("value").asText()).floatValue();
+            return message;
+        } else {
+            // Tombstone
+            TransformTombstone message = new TransformTombstone();
+            if (jsonNode.has("TOTAL")){
+                message.value = new BigDecimal(jsonNode.get("TOTAL").asText()).floatValue();
             } else {
-                // Tombstone
-                TransformTombstone message = new TransformTombstone();
-                if (jsonNode.has("TOTAL")){
-                    message.value = new BigDecimal(jsonNode.get("TOTAL").asText()).floatValue();
-                } else {
-                    message.value = 0.0f;
-                }
-                message.key = jsonNode.get("key").asText();
-                return message;
+                message.value = 0.0f;
             }
-        } else {
-            throw new RuntimeException();
+            message.key = key;
+            return message;
         }
     }
 }
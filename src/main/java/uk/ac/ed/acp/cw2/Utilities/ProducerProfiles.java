@@ -0,0 +1,99 @@
+package uk.ac.ed.acp.cw2.Utilities;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ed.acp.cw2.model.ProducerProfile;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The named producer profiles and which topic uses which. Three profiles are built in:
+ * <ul>
+ *     <li>default - small batches, 5ms linger, no compression</li>
+ *     <li>low-latency - sends immediately</li>
+ *     <li>bulk - large lz4 compressed batches, 50ms linger, more buffer memory</li>
+ * </ul>
+ * KAFKA_PRODUCER_PROFILES is a JSON object of profile name to settings
+ * (e.g. {"bulk": {"compressionType": "zstd"}, "archive": {"batchSize": 1048576}}) that adjusts the built in
+ * profiles or adds new ones, starting from the default settings. KAFKA_TOPIC_PROFILES ("topic=profile,...")
+ * picks the profile for a topic; other topics use "default".
+ */
+public class ProducerProfiles {
+    private static final Logger logger = LoggerFactory.getLogger(ProducerProfiles.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    public static final String DEFAULT_PROFILE = "default";
+    // Idempotent producers only keep ordering guarantees with at most 5 requests in flight
+    private static final int MAX_IN_FLIGHT_LIMIT = 5;
+
+    private final Map<String, ProducerProfile> profiles = new LinkedHashMap<>();
+    private final Map<String, String> topicProfiles = new HashMap<>();
+
+    public ProducerProfiles(String profilesJson, String topicProfilesSetting) {
+        ProducerProfile defaults = new ProducerProfile();
+        defaults.name = DEFAULT_PROFILE;
+        profiles.put(DEFAULT_PROFILE, defaults);
+        profiles.put("low-latency", new ProducerProfile("low-latency", "none", 16384, 0, 32 * 1024 * 1024, 5));
+        profiles.put("bulk", new ProducerProfile("bulk", "lz4", 256 * 1024, 50, 64 * 1024 * 1024, 5));
+
+        if (profilesJson != null && !profilesJson.isBlank()) {
+            try {
+                JsonNode overrides = objectMapper.readTree(profilesJson);
+                overrides.fields().forEachRemaining(field -> {
+                    ProducerProfile base = profiles.getOrDefault(field.getKey(), profiles.get(DEFAULT_PROFILE));
+                    try {
+                        ProducerProfile profile = objectMapper.readerForUpdating(base.copy(field.getKey())).readValue(field.getValue());
+                        profile.name = field.getKey();
+                        profiles.put(field.getKey(), profile);
+                    } catch (Exception e) {
+                        throw new IllegalArgumentException("Invalid producer profile " + field.getKey() + ": " + e.getMessage(), e);
+                    }
+                });
+            } catch (IllegalArgumentException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Invalid KAFKA_PRODUCER_PROFILES: " + e.getMessage(), e);
+            }
+        }
+        for (ProducerProfile profile : profiles.values()) {
+            if (profile.maxInFlight < 1 || profile.maxInFlight > MAX_IN_FLIGHT_LIMIT) {
+                throw new IllegalArgumentException("Producer profile " + profile.name + " needs maxInFlight between 1 and " + MAX_IN_FLIGHT_LIMIT);
+            }
+        }
+
+        if (topicProfilesSetting != null) {
+            for (String entry : topicProfilesSetting.split(",")) {
+                if (entry.isBlank()) continue;
+                String[] parts = entry.split("=", 2);
+                if (parts.length != 2 || !profiles.containsKey(parts[1].trim())) {
+                    throw new IllegalArgumentException("Expected topic=profile with a known profile but got " + entry);
+                }
+                topicProfiles.put(parts[0].trim(), parts[1].trim());
+            }
+        }
+        logger.info("Producer profiles {}, topic profiles {}", profiles.keySet(), topicProfiles);
+    }
+
+    /**
+     * @throws IllegalArgumentException if there is no profile with that name
+     */
+    public ProducerProfile get(String name) {
+        ProducerProfile profile = profiles.get(name);
+        if (profile == null) {
+            throw new IllegalArgumentException("Unknown producer profile " + name);
+        }
+        return profile;
+    }
+
+    public ProducerProfile forTopic(String topic) {
+        return profiles.get(topicProfiles.getOrDefault(topic, DEFAULT_PROFILE));
+    }
+
+    public Collection<ProducerProfile> getProfiles() {
+        return profiles.values();
+    }
+}
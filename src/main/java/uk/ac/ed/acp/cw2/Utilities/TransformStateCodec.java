@@ -0,0 +1,26 @@
+package uk.ac.ed.acp.cw2.Utilities;
+
+import uk.ac.ed.acp.cw2.model.TransformNormal;
+
+/**
+ * Converts the cached state of a {@link TransformNormal} to and from the bytes stored in Redis.
+ * The key is not part of the encoding, as it is already the Redis key the value is stored under.
+ */
+public interface TransformStateCodec {
+    byte[] encode(TransformNormal message);
+
+    /**
+     * @return the decoded message, or null if the data is missing or cannot be decoded
+     */
+    TransformNormal decode(String key, byte[] data);
+
+    String name();
+
+    static TransformStateCodec forName(String name) {
+        return switch (name == null ? "json" : name.toLowerCase()) {
+            case "json" -> new JsonTransformStateCodec();
+            case "binary" -> new BinaryTransformStateCodec();
+            default -> throw new IllegalArgumentException("Unknown cache value codec: " + name);
+        };
+    }
+}
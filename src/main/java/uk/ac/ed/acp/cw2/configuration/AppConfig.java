@@ -1,8 +1,27 @@
 package uk.ac.ed.acp.cw2.configuration;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import com.rabbitmq.client.ConnectionFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import redis.clients.jedis.ConnectionPoolConfig;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import uk.ac.ed.acp.cw2.Utilities.CacheExpiryPolicy;
+import uk.ac.ed.acp.cw2.Utilities.TransformStateCodec;
 import uk.ac.ed.acp.cw2.data.RuntimeEnvironment;
+import uk.ac.ed.acp.cw2.service.ClusterRedisShards;
+import uk.ac.ed.acp.cw2.service.NearCache;
+import uk.ac.ed.acp.cw2.service.NearCacheInvalidator;
+import uk.ac.ed.acp.cw2.service.RabbitChannelPool;
+import uk.ac.ed.acp.cw2.service.RedisShards;
+import uk.ac.ed.acp.cw2.service.ShardedRedisShards;
+import uk.ac.ed.acp.cw2.service.StandaloneRedisShards;
+
+import java.time.Duration;
 
 @Configuration
 public class AppConfig {
@@ -10,4 +29,124 @@ public class AppConfig {
     public RuntimeEnvironment CurrentRuntimeEnvironment() {
         return RuntimeEnvironment.getEnvironment();
     }
+
+    /**
+     * Redis nodes used by the cache service, selected with REDIS_MODE:
+     * "standalone" (REDIS_HOST/REDIS_PORT), "sharded" (client-side consistent hashing over REDIS_NODES)
+     * or "cluster" (Redis Cluster, REDIS_NODES are the seed nodes). Every node gets a pool with the same
+     * REDIS_POOL_* settings that lives for the lifetime of the application. Active, idle and waiting counts
+     * summed over all nodes are published as gauges on the actuator metrics endpoint.
+     */
+    @Bean(destroyMethod = "close")
+    public RedisShards RedisShards(RuntimeEnvironment environment, MeterRegistry registry) {
+        RedisShards shards = switch (environment.getRedisMode().toLowerCase()) {
+            case "standalone" -> new StandaloneRedisShards(environment.getRedisHost(), environment.getRedisPort(),
+                    new JedisPool(redisPoolConfig(environment, new JedisPoolConfig()), environment.getRedisHost(), environment.getRedisPort()));
+            case "sharded" -> new ShardedRedisShards(environment.getRedisNodes(),
+                    redisPoolConfig(environment, new JedisPoolConfig()));
+            case "cluster" -> new ClusterRedisShards(environment.getRedisNodes(),
+                    redisPoolConfig(environment, new ConnectionPoolConfig()));
+            default -> throw new IllegalArgumentException("Unknown REDIS_MODE: " + environment.getRedisMode());
+        };
+
+        Gauge.builder("redis.pool.active", shards, RedisShards::getNumActive)
+                .description("Redis connections currently borrowed from the pool")
+                .register(registry);
+        Gauge.builder("redis.pool.idle", shards, RedisShards::getNumIdle)
+                .description("Redis connections idle in the pool")
+                .register(registry);
+        Gauge.builder("redis.pool.waiting", shards, RedisShards::getNumWaiters)
+                .description("Threads blocked waiting to borrow a Redis connection")
+                .register(registry);
+        return shards;
+    }
+
+    private static <T extends GenericObjectPoolConfig<?>> T redisPoolConfig(RuntimeEnvironment environment, T poolConfig) {
+        poolConfig.setMaxTotal(environment.getRedisPoolMaxTotal());
+        poolConfig.setMaxIdle(environment.getRedisPoolMaxIdle());
+        poolConfig.setMinIdle(environment.getRedisPoolMinIdle());
+        poolConfig.setMaxWait(Duration.ofMillis(environment.getRedisPoolMaxWaitMs()));
+        poolConfig.setBlockWhenExhausted(true);
+        poolConfig.setJmxEnabled(false);
+        return poolConfig;
+    }
+
+    /**
+     * Format used for cached transform state, selected with CACHE_VALUE_CODEC ("json" or "binary").
+     * The binary codec still reads values written as JSON.
+     */
+    @Bean
+    public TransformStateCodec CacheValueCodec(RuntimeEnvironment environment) {
+        return TransformStateCodec.forName(environment.getCacheValueCodec());
+    }
+
+    /**
+     * Per namespace TTLs (CACHE_TTL_SECONDS, e.g. "transform=86400,*=3600") and namespaces whose TTL is
+     * renewed on every read (CACHE_SLIDING_NAMESPACES). Nothing expires by default.
+     */
+    @Bean
+    public CacheExpiryPolicy CacheExpiryPolicy(RuntimeEnvironment environment) {
+        return CacheExpiryPolicy.parse(environment.getCacheTtlSeconds(), environment.getCacheSlidingNamespaces());
+    }
+
+    /**
+     * Optional in-process cache in front of Redis (enabled with NEAR_CACHE_ENABLED). Hit, miss, eviction and
+     * invalidation counts are published on the actuator metrics endpoint.
+     */
+    @Bean
+    public NearCache RedisNearCache(RuntimeEnvironment environment, MeterRegistry registry) {
+        NearCache nearCache = new NearCache(environment.isNearCacheEnabled(),
+                environment.getNearCacheMaxEntries(),
+                environment.getNearCacheMaxBytes(),
+                environment.getNearCacheTtlMs());
+
+        FunctionCounter.builder("redis.nearcache.hits", nearCache, NearCache::getHits).register(registry);
+        FunctionCounter.builder("redis.nearcache.misses", nearCache, NearCache::getMisses).register(registry);
+        FunctionCounter.builder("redis.nearcache.evictions", nearCache, NearCache::getEvictions).register(registry);
+        FunctionCounter.builder("redis.nearcache.invalidations", nearCache, NearCache::getInvalidations).register(registry);
+        Gauge.builder("redis.nearcache.entries", nearCache, NearCache::getSize).register(registry);
+        Gauge.builder("redis.nearcache.bytes", nearCache, NearCache::getBytes).register(registry);
+        return nearCache;
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "close")
+    public NearCacheInvalidator RedisNearCacheInvalidator(RedisShards shards, NearCache nearCache) {
+        return new NearCacheInvalidator(shards, nearCache);
+    }
+
+    /**
+     * Channels shared by all RabbitMQ operations: up to RABBITMQ_CHANNEL_POOL_MAX_SIZE channels over
+     * RABBITMQ_CONNECTIONS connections, which recover automatically after a network failure. Borrowed, idle
+     * and waiting counts, and channels opened and thrown away, are published on the actuator metrics endpoint.
+     */
+    @Bean(destroyMethod = "close")
+    public RabbitChannelPool RabbitChannelPool(RuntimeEnvironment environment, MeterRegistry registry) {
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setHost(environment.getRabbitMqHost());
+        factory.setPort(environment.getRabbitMqPort());
+        factory.setAutomaticRecoveryEnabled(true);
+        factory.setNetworkRecoveryInterval(5000); // try every 5s
+        RabbitChannelPool pool;
+        try {
+            pool = RabbitChannelPool.open(factory, environment.getRabbitMqConnections(),
+                    environment.getRabbitMqChannelPoolMaxSize(), environment.getRabbitMqChannelPoolMaxWaitMs());
+        } catch (Exception e) {
+            throw new RuntimeException("Error opening RabbitMQ connections", e);
+        }
+
+        Gauge.builder("rabbitmq.channels.active", pool, RabbitChannelPool::getActive)
+                .description("RabbitMQ channels currently borrowed from the pool")
+                .register(registry);
+        Gauge.builder("rabbitmq.channels.idle", pool, RabbitChannelPool::getIdle)
+                .description("RabbitMQ channels idle in the pool")
+                .register(registry);
+        Gauge.builder("rabbitmq.channels.waiting", pool, RabbitChannelPool::getWaiting)
+                .description("Threads blocked waiting to borrow a RabbitMQ channel")
+                .register(registry);
+        Gauge.builder("rabbitmq.connections.open", pool, RabbitChannelPool::getOpenConnections)
+                .register(registry);
+        FunctionCounter.builder("rabbitmq.channels.created", pool, RabbitChannelPool::getCreated).register(registry);
+        FunctionCounter.builder("rabbitmq.channels.discarded", pool, RabbitChannelPool::getDiscarded).register(registry);
+        return pool;
+    }
 }
@@ -0,0 +1,345 @@
+package uk.ac.ed.acp.cw2.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import uk.ac.ed.acp.cw2.model.CacheStats;
+import uk.ac.ed.acp.cw2.service.CacheService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Bulk, export and stats operations on the Redis cache. They live outside /cache, where every path is a key,
+ * so that a key named "bulk", "export" or "stats" still reaches {@link CacheController}.
+ * <p>
+ * Bulk endpoints take either a JSON body or NDJSON ({@code application/x-ndjson}, one JSON value per line)
+ * and are read and applied in batches, so large backfills are never fully held in memory. The body is first
+ * spooled to a temporary file and checked in full, so a malformed body is answered with 400 before any key is
+ * stored, deleted or written to the response:
+ * <ul>
+ *     <li>keys: a JSON array of strings, or one JSON string per line</li>
+ *     <li>entries: a JSON object of key to value, a JSON array of {"key": .., "value": ..} objects,
+ *     or one such object per line</li>
+ * </ul>
+ * String values are stored as is, any other JSON value is stored as its JSON text. Values read back that are not
+ * valid UTF-8, such as binary transform state, are answered as {"base64": ..} instead of a string.
+ */
+@RestController
+@RequestMapping("/cache-admin")
+public class CacheAdminController {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheAdminController.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final String APPLICATION_NDJSON = "application/x-ndjson";
+    private static final int BULK_BATCH_SIZE = 500;
+    private final CacheService cacheService;
+
+    public CacheAdminController(CacheService cacheService) {
+        this.cacheService = cacheService;
+    }
+
+    /**
+     * Looks up many keys. Answers with a JSON object of key to value (null when missing), or with one
+     * {"key": .., "value": ..} line per key when the request was NDJSON.
+     */
+    @PostMapping(value = "/bulk/get", consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON})
+    public void bulkRetrieve(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        boolean ndjson = isNdjson(request);
+        Path body = spool(request, CacheAdminController::checkKeys);
+        int[] total = {0};
+        response.setContentType(ndjson ? APPLICATION_NDJSON : MediaType.APPLICATION_JSON_VALUE);
+        try (InputStream in = Files.newInputStream(body);
+             JsonGenerator generator = createGenerator(response.getOutputStream())) {
+            if (!ndjson) generator.writeStartObject();
+            forEachBatch(readBody(in), CacheAdminController::collectKey, keys -> {
+                cacheService.retrieveBytesFromCache(keys).forEach((key, value) -> {
+                    try {
+                        writeEntry(generator, key, value, ndjson);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                total[0] += keys.size();
+            });
+            if (!ndjson) generator.writeEndObject();
+        } finally {
+            Files.deleteIfExists(body);
+        }
+        logger.info("Bulk retrieved {} keys", total[0]);
+    }
+
+    /**
+     * Stores many entries, one pipelined batch at a time. The body is read token by token, so even a single
+     * JSON object holding the whole backfill is never materialised.
+     *
+     * @return number of entries stored
+     */
+    @PutMapping(value = "/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON})
+    public int bulkStore(HttpServletRequest request) throws IOException {
+        Path body = spool(request, in -> readEntries(in, (key, value) -> { }));
+        Map<String, String> batch = new LinkedHashMap<>();
+        int[] total = {0};
+        try (InputStream in = Files.newInputStream(body)) {
+            readEntries(in, (key, value) -> {
+                batch.put(key, value);
+                if (batch.size() >= BULK_BATCH_SIZE) {
+                    cacheService.storeInCache(new LinkedHashMap<>(batch));
+                    total[0] += batch.size();
+                    batch.clear();
+                }
+            });
+        } finally {
+            Files.deleteIfExists(body);
+        }
+        if (!batch.isEmpty()) {
+            cacheService.storeInCache(batch);
+            total[0] += batch.size();
+        }
+        logger.info("Bulk stored {} keys", total[0]);
+        return total[0];
+    }
+
+    /**
+     * Deletes many keys.
+     *
+     * @return number of keys requested for deletion
+     */
+    @PostMapping(value = "/bulk/delete", consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON})
+    public int bulkRemove(HttpServletRequest request) throws IOException {
+        Path body = spool(request, CacheAdminController::checkKeys);
+        int[] total = {0};
+        try (InputStream in = Files.newInputStream(body)) {
+            forEachBatch(readBody(in), CacheAdminController::collectKey, keys -> {
+                cacheService.removeFromCache(keys);
+                total[0] += keys.size();
+            });
+        } finally {
+            Files.deleteIfExists(body);
+        }
+        logger.info("Bulk removed {} keys", total[0]);
+        return total[0];
+    }
+
+    /**
+     * Streams every string key matching the pattern as NDJSON {"key": .., "value": ..} lines, walking the
+     * keyspace with SCAN so nothing is buffered beyond the current page.
+     */
+    @GetMapping(value = "/export", produces = APPLICATION_NDJSON)
+    public StreamingResponseBody export(@RequestParam(defaultValue = "*") String match,
+                                        @RequestParam(defaultValue = "" + BULK_BATCH_SIZE) int count) {
+        logger.info("Exporting cache keys matching {}", match);
+        return out -> {
+            try (JsonGenerator generator = createGenerator(out)) {
+                cacheService.scan(match, count, page -> {
+                    try {
+                        for (Map.Entry<String, byte[]> entry : page.entrySet()) {
+                            writeEntry(generator, entry.getKey(), entry.getValue(), true);
+                        }
+                        // Push each page to the client instead of letting the response build up
+                        generator.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Reports key count and estimated memory per key namespace, plus memory use and eviction policy per
+     * Redis node. Walks the whole keyspace, so it is meant for sizing rather than frequent polling.
+     */
+    @GetMapping("/stats")
+    public CacheStats stats(@RequestParam(defaultValue = "100") int samples) {
+        logger.info("Collecting cache stats with {} samples per namespace", samples);
+        return cacheService.stats(samples);
+    }
+
+    // ================================ Body handling ================================
+
+    private static boolean isNdjson(HttpServletRequest request) {
+        return request.getContentType() != null && request.getContentType().startsWith(APPLICATION_NDJSON);
+    }
+
+    // Copies the body to a temporary file and runs the check over the whole of it, so a malformed body is
+    // rejected before anything is applied. The caller reads the body again from the file and deletes it.
+    private static Path spool(HttpServletRequest request, BodyCheck check) throws IOException {
+        Path body = Files.createTempFile("cache-bulk", ".json");
+        try {
+            try (InputStream in = request.getInputStream()) {
+                Files.copy(in, body, StandardCopyOption.REPLACE_EXISTING);
+            }
+            try (InputStream in = Files.newInputStream(body)) {
+                check.check(in);
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException("Malformed body: " + e.getOriginalMessage(), e);
+            } catch (RuntimeException e) {
+                // The value iterator wraps parse errors in unchecked exceptions
+                if (e.getCause() instanceof JsonProcessingException cause) {
+                    throw new IllegalArgumentException("Malformed body: " + cause.getOriginalMessage(), e);
+                }
+                throw e;
+            }
+            return body;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(body);
+            throw e;
+        }
+    }
+
+    @FunctionalInterface
+    private interface BodyCheck {
+        void check(InputStream body) throws IOException;
+    }
+
+    private static void checkKeys(InputStream body) throws IOException {
+        forEachBatch(readBody(body), CacheAdminController::collectKey, keys -> { });
+    }
+
+    // Iterates the top level values of the body; a top level JSON array is unwrapped into its elements,
+    // and NDJSON is simply a sequence of top level values
+    private static Iterator<JsonNode> readBody(InputStream body) throws IOException {
+        return objectMapper.readerFor(JsonNode.class).readValues(body);
+    }
+
+    private static void forEachBatch(Iterator<JsonNode> body, Collector collector, Consumer<List<String>> batchConsumer) {
+        List<String> batch = new ArrayList<>();
+        while (body.hasNext()) {
+            collector.collect(body.next(), batch);
+            if (batch.size() >= BULK_BATCH_SIZE) {
+                batchConsumer.accept(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) batchConsumer.accept(batch);
+    }
+
+    @FunctionalInterface
+    private interface Collector {
+        void collect(JsonNode node, List<String> batch);
+    }
+
+    private static void collectKey(JsonNode node, List<String> keys) {
+        if (node.isTextual()) {
+            keys.add(node.asText());
+        } else if (node.has("key")) {
+            keys.add(node.get("key").asText());
+        } else {
+            throw new IllegalArgumentException("Expected a key but got " + node);
+        }
+    }
+
+    // Streams the entries of the body: top level objects, or the elements of a top level array. An object holding
+    // exactly the fields "key" and "value" is one entry, any other object is a map of key to value whose fields
+    // are handed over one at a time, so only the current value is ever held
+    private static void readEntries(InputStream body, BiConsumer<String, String> sink) throws IOException {
+        try (JsonParser parser = objectMapper.createParser(body)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        readEntry(parser, sink);
+                    }
+                } else {
+                    readEntry(parser, sink);
+                }
+            }
+        }
+    }
+
+    private static void readEntry(JsonParser parser, BiConsumer<String, String> sink) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new IllegalArgumentException("Expected an entry but got " + parser.readValueAsTree());
+        }
+        // "key" and "value" fields are held back until the object ends, as they may turn out to form one entry
+        JsonNode key = null;
+        JsonNode value = null;
+        boolean otherFields = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            JsonNode field = parser.readValueAsTree();
+            if (name.equals("key") && key == null) {
+                key = field;
+            } else if (name.equals("value") && value == null) {
+                value = field;
+            } else {
+                otherFields = true;
+                sink.accept(name, valueText(field));
+            }
+        }
+        if (key != null && value != null && !otherFields) {
+            sink.accept(key.asText(), valueText(value));
+            return;
+        }
+        if (key != null) sink.accept("key", valueText(key));
+        if (value != null) sink.accept("value", valueText(value));
+    }
+
+    private static String valueText(JsonNode value) {
+        return value.isTextual() ? value.asText() : value.toString();
+    }
+
+    // NDJSON lines are terminated explicitly, so no separator between top level values
+    private static JsonGenerator createGenerator(OutputStream out) throws IOException {
+        return objectMapper.createGenerator(out).setRootValueSeparator(null);
+    }
+
+    private static void writeEntry(JsonGenerator generator, String key, byte[] value, boolean ndjson) throws IOException {
+        if (ndjson) {
+            generator.writeStartObject();
+            generator.writeStringField("key", key);
+            generator.writeFieldName("value");
+            writeValue(generator, value);
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        } else {
+            generator.writeFieldName(key);
+            writeValue(generator, value);
+        }
+    }
+
+    private static void writeValue(JsonGenerator generator, byte[] value) throws IOException {
+        String text = value == null ? null : CacheController.utf8(value);
+        if (value == null) {
+            generator.writeNull();
+        } else if (text != null) {
+            generator.writeString(text);
+        } else {
+            generator.writeStartObject();
+            generator.writeStringField("base64", Base64.getEncoder().encodeToString(value));
+            generator.writeEndObject();
+        }
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> badRequest(IllegalArgumentException e) {
+        logger.error("Bad bulk request: {}", e.getMessage());
+        return ResponseEntity.badRequest().body(e.getMessage());
+    }
+}
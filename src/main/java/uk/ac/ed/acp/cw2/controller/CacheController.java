@@ -2,13 +2,22 @@ package uk.ac.ed.acp.cw2.controller;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import uk.ac.ed.acp.cw2.service.CacheService;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+
 /**
  * Controller class responsible for handling REST endpoints for managing
  * cache storage using Redis. Provides functionality to retrieve and store
  * key-value pairs in the cache.
+ * <p>
+ * Every path under /cache is a key, so bulk, export and stats operations live under /cache-admin
+ * ({@link CacheAdminController}) where they cannot shadow a key of the same name.
  */
 @RestController
 @RequestMapping("/cache")
@@ -21,10 +30,16 @@ public class CacheController {
         this.cacheService = cacheService;
     }
 
+    /**
+     * Answers with the value exactly as stored: as UTF-8 text when it is text, otherwise as raw bytes.
+     */
     @GetMapping("/{cacheKey}")
-    public String retrieveFromCache(@PathVariable String cacheKey) {
+    public ResponseEntity<byte[]> retrieveFromCache(@PathVariable String cacheKey) {
         logger.info("Retrieving from cache: {}", cacheKey);
-        return cacheService.retrieveFromCache(cacheKey);
+        byte[] value = cacheService.retrieveBytesFromCache(cacheKey);
+        if (value == null) return ResponseEntity.ok().build();
+        MediaType type = utf8(value) != null ? new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8) : MediaType.APPLICATION_OCTET_STREAM;
+        return ResponseEntity.ok().contentType(type).body(value);
     }
 
     @PutMapping("/{cacheKey}/{cacheValue}")
@@ -32,4 +47,19 @@ public class CacheController {
         logger.info("Storing in cache: {} = {}", cacheKey, cacheValue);
         cacheService.storeInCache(cacheKey, cacheValue);
     }
+
+    @PutMapping("/{cacheKey}")
+    public void storeBodyInCache(@PathVariable String cacheKey, @RequestBody String cacheValue) {
+        logger.info("Storing in cache: {} ({} chars)", cacheKey, cacheValue.length());
+        cacheService.storeInCache(cacheKey, cacheValue);
+    }
+
+    // The value as text, or null if it is not valid UTF-8
+    static String utf8(byte[] value) {
+        try {
+            return StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(value)).toString();
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+    }
 }
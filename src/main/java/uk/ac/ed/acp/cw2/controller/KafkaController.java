@@ -1,10 +1,20 @@
 package uk.ac.ed.acp.cw2.controller;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import uk.ac.ed.acp.cw2.Utilities.MessageDecoder;
+import uk.ac.ed.acp.cw2.model.PublishResult;
 import uk.ac.ed.acp.cw2.service.KafkaService;
 import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 /**
@@ -17,6 +27,7 @@ import java.util.List;
 public class KafkaController {
 
     private static final Logger logger = LoggerFactory.getLogger(KafkaController.class);
+    private static final String APPLICATION_NDJSON = "application/x-ndjson";
     private final KafkaService kafkaService;
 
     public KafkaController(KafkaService kafkaService) {
@@ -34,14 +45,174 @@ public class KafkaController {
         }
     }
 
+    /**
+     * Publishes a JSON array of messages as one batch. String elements are sent as is, any other JSON value
+     * as its JSON text. The producer profile is the topic's own unless one is named.
+     */
+    @PostMapping("/{writeTopic}")
+    public ResponseEntity<PublishResult> publishToTopic(@PathVariable String writeTopic, @RequestBody List<JsonNode> messages,
+                                                        @RequestParam(required = false) String profile) {
+        try {
+            List<String> values = messages.stream().map(node -> node.isTextual() ? node.asText() : node.toString()).toList();
+            PublishResult result = profile == null
+                    ? kafkaService.publish(writeTopic, values)
+                    : kafkaService.publish(writeTopic, values, profile);
+            return ResponseEntity.ok(result);
+        } catch (IllegalArgumentException e) {
+            logger.error(e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            logger.error("Error publishing messages to Kafka topic", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Reads messages with one worker per partition, merged in partition ({@code order=partition}) or
+     * timestamp ({@code order=timestamp}) order.
+     */
+    @GetMapping("/{readTopic}/parallel/{messageCount}")
+    public ResponseEntity<List<String>> receiveParallelFromTopic(@PathVariable String readTopic, @PathVariable int messageCount,
+                                                                 @RequestParam(defaultValue = "0") int timeoutInMsec,
+                                                                 @RequestParam(defaultValue = "partition") String order) {
+        try {
+            KafkaService.MergeOrder mergeOrder = KafkaService.MergeOrder.valueOf(order.toUpperCase());
+            List<String> messages = kafkaService.receiveParallel(readTopic, messageCount, timeoutInMsec, null, mergeOrder);
+            return messages != null ? ResponseEntity.ok(messages) : ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e) {
+            logger.error("Unknown merge order {}", order);
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            logger.error("Error receiving messages from Kafka topic", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Reads for the given time as the named consumer {@code group} (the service's own when absent), from its
+     * committed offsets or from the position given by at most one of {@code offset}, {@code timestamp}
+     * (epoch ms) or {@code last} (the last n messages of each partition). With {@code mode=assign} the read
+     * takes the topic's partitions directly instead of joining the group, which is much quicker for short reads.
+     */
     @GetMapping("/{readTopic}/{timeoutInMsec}")
-    public ResponseEntity<List<String>> receiveFromTopic(@PathVariable String readTopic, @PathVariable int timeoutInMsec) {
+    public ResponseEntity<List<String>> receiveFromTopic(@PathVariable String readTopic, @PathVariable int timeoutInMsec,
+                                                         @RequestParam(required = false) String group,
+                                                         @RequestParam(required = false) Long offset,
+                                                         @RequestParam(required = false) Long timestamp,
+                                                         @RequestParam(required = false) Long last,
+                                                         @RequestParam(defaultValue = "subscribe") String mode) {
         try {
-            List<String> messages = kafkaService.receiveTimeout(readTopic, timeoutInMsec);
+            KafkaService.StartPosition start = startPosition(offset, timestamp, last);
+            KafkaService.ReadMode readMode = KafkaService.ReadMode.valueOf(mode.toUpperCase());
+            List<String> messages = kafkaService.receive(readTopic, timeoutInMsec, 0, null, group, start, readMode);
             return messages != null ? ResponseEntity.ok(messages) : ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e) {
+            logger.error(e.getMessage());
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             logger.error("Error receiving messages from Kafka topic", e);
             return ResponseEntity.internalServerError().build();
         }
     }
+
+    /**
+     * Streams messages to the client as they are polled rather than returning them all at the end, either as
+     * NDJSON ({@code format=ndjson}, one message per line) or as Server-Sent Events ({@code format=sse}, one
+     * event per message). Each message is flushed as it is written, and polling waits for the write, so a slow
+     * client slows the read down instead of messages building up in memory. Stops after the timeout, or after
+     * {@code count} messages when one is given; a count-only stream ({@code timeoutInMsec} 0) gives up after
+     * {@code maxWaitInMsec} if that is set. Takes the same group, start position and mode parameters as
+     * a plain read.
+     */
+    @GetMapping("/{readTopic}/stream/{timeoutInMsec}")
+    public ResponseEntity<StreamingResponseBody> streamFromTopic(@PathVariable String readTopic, @PathVariable int timeoutInMsec,
+                                                                 @RequestParam(defaultValue = "0") int count,
+                                                                 @RequestParam(defaultValue = "0") long maxWaitInMsec,
+                                                                 @RequestParam(defaultValue = "ndjson") String format,
+                                                                 @RequestParam(required = false) String group,
+                                                                 @RequestParam(required = false) Long offset,
+                                                                 @RequestParam(required = false) Long timestamp,
+                                                                 @RequestParam(required = false) Long last,
+                                                                 @RequestParam(defaultValue = "subscribe") String mode) {
+        KafkaService.StartPosition start;
+        KafkaService.ReadMode readMode;
+        try {
+            start = startPosition(offset, timestamp, last);
+            readMode = KafkaService.ReadMode.valueOf(mode.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.error(e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+        // The stream is committed to 200 once the body starts, so a read the service would refuse fails here
+        if (timeoutInMsec < 0 || count < 0 || (timeoutInMsec == 0 && count == 0)) {
+            logger.error("Stream of {} needs a timeout or a message count: timeout={}, count={}", readTopic, timeoutInMsec, count);
+            return ResponseEntity.badRequest().build();
+        }
+        boolean sse;
+        switch (format.toLowerCase()) {
+            case "ndjson": sse = false; break;
+            case "sse": sse = true; break;
+            default:
+                logger.error("Unknown stream format {}", format);
+                return ResponseEntity.badRequest().build();
+        }
+        StreamingResponseBody body = out -> {
+            try {
+                int streamed = kafkaService.stream(readTopic, timeoutInMsec, count, maxWaitInMsec, MessageDecoder.RAW, group, start, readMode,
+                        message -> write(out, message, sse));
+                if (streamed < 0) logger.error("Could not stream from Kafka topic {}", readTopic);
+            } catch (UncheckedIOException e) {
+                // Client went away; the message being written is left for the next read
+                logger.info("Stream of Kafka topic {} closed by client", readTopic);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(sse ? MediaType.TEXT_EVENT_STREAM : MediaType.parseMediaType(APPLICATION_NDJSON))
+                .body(body);
+    }
+
+    /**
+     * Cancels the read or stream in progress on a topic for the given group and mode. It returns, or ends,
+     * with the messages read so far.
+     */
+    @DeleteMapping("/{readTopic}/read")
+    public ResponseEntity<Void> cancelRead(@PathVariable String readTopic,
+                                           @RequestParam(required = false) String group,
+                                           @RequestParam(defaultValue = "subscribe") String mode) {
+        try {
+            boolean cancelled = kafkaService.cancel(readTopic, group, KafkaService.ReadMode.valueOf(mode.toUpperCase()));
+            return cancelled ? ResponseEntity.ok().build() : ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e) {
+            logger.error(e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    private static KafkaService.StartPosition startPosition(Long offset, Long timestamp, Long last) {
+        int given = (offset != null ? 1 : 0) + (timestamp != null ? 1 : 0) + (last != null ? 1 : 0);
+        if (given > 1) throw new IllegalArgumentException("Only one of offset, timestamp and last can be given");
+        if (offset != null) return KafkaService.StartPosition.offset(offset);
+        if (timestamp != null) return KafkaService.StartPosition.timestamp(timestamp);
+        if (last != null) return KafkaService.StartPosition.last(last);
+        return KafkaService.StartPosition.COMMITTED;
+    }
+
+    private static void write(OutputStream out, String message, boolean sse) {
+        try {
+            if (sse) {
+                // A data line cannot hold a line break, so multi-line messages become several data lines
+                StringBuilder event = new StringBuilder();
+                for (String line : message.split("\\r?\\n", -1)) {
+                    event.append("data: ").append(line).append('\n');
+                }
+                out.write(event.append('\n').toString().getBytes(StandardCharsets.UTF_8));
+            } else {
+                out.write(message.getBytes(StandardCharsets.UTF_8));
+                out.write('\n');
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 }
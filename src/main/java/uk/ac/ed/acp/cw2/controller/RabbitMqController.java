@@ -3,6 +3,8 @@ package uk.ac.ed.acp.cw2.controller;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.bind.annotation.*;
+import uk.ac.ed.acp.cw2.Utilities.MessageDecoder;
+import uk.ac.ed.acp.cw2.model.ReceiveResult;
 import uk.ac.ed.acp.cw2.service.RabbitMqService;
 import org.springframework.http.ResponseEntity;
 
@@ -34,11 +36,18 @@ public class RabbitMqController {
         }
     }
 
+    /**
+     * Reads for up to timeoutInMsec, returning early once count messages have been read or the next one would take
+     * the response past maxBytes. The X-Stop-Reason header says which of these ended the read.
+     */
     @GetMapping("/{queueName}/{timeoutInMsec}")
-    public ResponseEntity<List<String>> receiveFromQueue(@PathVariable String queueName, @PathVariable int timeoutInMsec) {
+    public ResponseEntity<List<String>> receiveFromQueue(@PathVariable String queueName, @PathVariable int timeoutInMsec,
+                                                         @RequestParam(defaultValue = "0") int count,
+                                                         @RequestParam(defaultValue = "0") long maxBytes) {
         try {
-            List<String> messages = rabbitMqService.receiveTimeout(queueName, timeoutInMsec);
-            return messages != null ? ResponseEntity.ok(messages) : ResponseEntity.notFound().build();
+            ReceiveResult<String> result = rabbitMqService.receive(queueName, timeoutInMsec, count, maxBytes, MessageDecoder.RAW);
+            if (result == null) return ResponseEntity.notFound().build();
+            return ResponseEntity.ok().header("X-Stop-Reason", result.stopReason.name()).body(result.messages);
         } catch (Exception e) {
             logger.error("Uncaught error receiving messages from queue", e);
             return ResponseEntity.internalServerError().build();
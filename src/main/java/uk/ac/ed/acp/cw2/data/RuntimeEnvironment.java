@@ -3,6 +3,9 @@ package uk.ac.ed.acp.cw2.data;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Represents configuration settings for runtime environments, which are populated using environment variables.
  * This class includes settings related to Redis, RabbitMQ, and Kafka. It provides static constants for
@@ -14,14 +17,47 @@ public class RuntimeEnvironment {
 
     public static final String REDIS_HOST_ENV_VAR = "REDIS_HOST";
     public static final String REDIS_PORT_ENV_VAR = "REDIS_PORT";
+    public static final String REDIS_MODE_ENV_VAR = "REDIS_MODE";
+    public static final String REDIS_NODES_ENV_VAR = "REDIS_NODES";
+    public static final String REDIS_POOL_MAX_TOTAL_ENV_VAR = "REDIS_POOL_MAX_TOTAL";
+    public static final String REDIS_POOL_MAX_IDLE_ENV_VAR = "REDIS_POOL_MAX_IDLE";
+    public static final String REDIS_POOL_MIN_IDLE_ENV_VAR = "REDIS_POOL_MIN_IDLE";
+    public static final String REDIS_POOL_MAX_WAIT_MS_ENV_VAR = "REDIS_POOL_MAX_WAIT_MS";
+    public static final String REDIS_ASYNC_CONNECTIONS_ENV_VAR = "REDIS_ASYNC_CONNECTIONS";
+    public static final String CACHE_VALUE_CODEC_ENV_VAR = "CACHE_VALUE_CODEC";
+    public static final String CACHE_TTL_SECONDS_ENV_VAR = "CACHE_TTL_SECONDS";
+    public static final String CACHE_SLIDING_NAMESPACES_ENV_VAR = "CACHE_SLIDING_NAMESPACES";
+    public static final String TRANSFORM_WRITE_BEHIND_ENV_VAR = "TRANSFORM_WRITE_BEHIND";
+    public static final String NEAR_CACHE_ENABLED_ENV_VAR = "NEAR_CACHE_ENABLED";
+    public static final String NEAR_CACHE_MAX_ENTRIES_ENV_VAR = "NEAR_CACHE_MAX_ENTRIES";
+    public static final String NEAR_CACHE_MAX_BYTES_ENV_VAR = "NEAR_CACHE_MAX_BYTES";
+    public static final String NEAR_CACHE_TTL_MS_ENV_VAR = "NEAR_CACHE_TTL_MS";
 
     public static final String RABBITMQ_HOST_ENV_VAR = "RABBITMQ_HOST";
     public static final String RABBITMQ_PORT_ENV_VAR = "RABBITMQ_PORT";
+    public static final String RABBITMQ_CONNECTIONS_ENV_VAR = "RABBITMQ_CONNECTIONS";
+    public static final String RABBITMQ_CHANNEL_POOL_MAX_SIZE_ENV_VAR = "RABBITMQ_CHANNEL_POOL_MAX_SIZE";
+    public static final String RABBITMQ_CHANNEL_POOL_MAX_WAIT_MS_ENV_VAR = "RABBITMQ_CHANNEL_POOL_MAX_WAIT_MS";
+    public static final String RABBITMQ_CONFIRM_TIMEOUT_MS_ENV_VAR = "RABBITMQ_CONFIRM_TIMEOUT_MS";
+    public static final String RABBITMQ_PREFETCH_ENV_VAR = "RABBITMQ_PREFETCH";
+    public static final String RABBITMQ_QUEUE_TYPE_ENV_VAR = "RABBITMQ_QUEUE_TYPE";
+    public static final String RABBITMQ_QUEUE_LAZY_ENV_VAR = "RABBITMQ_QUEUE_LAZY";
+    public static final String RABBITMQ_QUEUE_MAX_LENGTH_ENV_VAR = "RABBITMQ_QUEUE_MAX_LENGTH";
 
     public static final String KAFKA_BOOTSTRAP_SERVERS_ENV_VAR = "KAFKA_BOOTSTRAP_SERVERS";
     public static final String KAFKA_INBOUND_TOPIC = "KAFKA_INBOUND_TOPIC";
     public static final String KAFKA_OUTBOUND_TOPIC = "KAFKA_OUTBOUND_TOPIC";
 
+    public static final String KAFKA_CONSUMER_POOL_MAX_SIZE_ENV_VAR = "KAFKA_CONSUMER_POOL_MAX_SIZE";
+    public static final String KAFKA_CONSUMER_IDLE_TIMEOUT_MS_ENV_VAR = "KAFKA_CONSUMER_IDLE_TIMEOUT_MS";
+    public static final String KAFKA_CONSUMER_POOL_MAX_WAIT_MS_ENV_VAR = "KAFKA_CONSUMER_POOL_MAX_WAIT_MS";
+    public static final String KAFKA_GROUP_ID_ENV_VAR = "KAFKA_GROUP_ID";
+    public static final String KAFKA_METADATA_REFRESH_MS_ENV_VAR = "KAFKA_METADATA_REFRESH_MS";
+    public static final String KAFKA_MAX_POLL_RECORDS_ENV_VAR = "KAFKA_MAX_POLL_RECORDS";
+
+    public static final String KAFKA_PRODUCER_PROFILES_ENV_VAR = "KAFKA_PRODUCER_PROFILES";
+    public static final String KAFKA_TOPIC_PROFILES_ENV_VAR = "KAFKA_TOPIC_PROFILES";
+
     public static final String KAFKA_SECURITY_PROTOCOL_ENV_VAR = "KAFKA_SECURITY_PROTOCOL";
     public static final String KAFKA_SASL_MECHANISM_ENV_VAR = "KAFKA_SASL_MECHANISM";
     public static final String KAFKA_SASL_JAAS_CONFIG_ENV_VAR = "KAFKA_SASL_JAAS_CONFIG";
@@ -36,12 +72,81 @@ public class RuntimeEnvironment {
     private int redisPort;
     @Getter
     @Setter
+    private String redisMode;
+    @Getter
+    @Setter
+    private List<String> redisNodes;
+    @Getter
+    @Setter
+    private int redisPoolMaxTotal;
+    @Getter
+    @Setter
+    private int redisPoolMaxIdle;
+    @Getter
+    @Setter
+    private int redisPoolMinIdle;
+    @Getter
+    @Setter
+    private long redisPoolMaxWaitMs;
+    @Getter
+    @Setter
+    private int redisAsyncConnections;
+    @Getter
+    @Setter
+    private String cacheValueCodec;
+    @Getter
+    @Setter
+    private String cacheTtlSeconds;
+    @Getter
+    @Setter
+    private String cacheSlidingNamespaces;
+    @Getter
+    @Setter
+    private boolean transformWriteBehind;
+    @Getter
+    @Setter
+    private boolean nearCacheEnabled;
+    @Getter
+    @Setter
+    private int nearCacheMaxEntries;
+    @Getter
+    @Setter
+    private long nearCacheMaxBytes;
+    @Getter
+    @Setter
+    private long nearCacheTtlMs;
+    @Getter
+    @Setter
     private String rabbitMqHost;
     @Getter
     @Setter
     private int rabbitMqPort;
     @Getter
     @Setter
+    private int rabbitMqConnections;
+    @Getter
+    @Setter
+    private int rabbitMqChannelPoolMaxSize;
+    @Getter
+    @Setter
+    private long rabbitMqChannelPoolMaxWaitMs;
+    @Getter
+    @Setter
+    private long rabbitMqConfirmTimeoutMs;
+    @Getter
+    @Setter
+    private int rabbitMqPrefetch;
+    @Getter
+    @Setter
+    private String rabbitMqQueueType;
+    @Getter
+    @Setter
+    private boolean rabbitMqQueueLazy;
+    @Getter
+    @Setter
+    private long rabbitMqQueueMaxLength;
+    @Getter
+    @Setter
     private String kafkaBootstrapServers;
     @Getter
     @Setter
@@ -51,6 +156,30 @@ public class RuntimeEnvironment {
     private String kafkaOutboundTopic;
     @Getter
     @Setter
+    private int kafkaConsumerPoolMaxSize;
+    @Getter
+    @Setter
+    private long kafkaConsumerIdleTimeoutMs;
+    @Getter
+    @Setter
+    private long kafkaConsumerPoolMaxWaitMs;
+    @Getter
+    @Setter
+    private String kafkaGroupId;
+    @Getter
+    @Setter
+    private long kafkaMetadataRefreshMs;
+    @Getter
+    @Setter
+    private int kafkaMaxPollRecords;
+    @Getter
+    @Setter
+    private String kafkaProducerProfiles;
+    @Getter
+    @Setter
+    private String kafkaTopicProfiles;
+    @Getter
+    @Setter
     private String kafkaSecurityProtocol;
     @Getter
     @Setter
@@ -80,12 +209,43 @@ public class RuntimeEnvironment {
         settings.setKafkaBootstrapServers(System.getenv(KAFKA_BOOTSTRAP_SERVERS_ENV_VAR) == null ? "localhost:9092" : System.getenv(KAFKA_BOOTSTRAP_SERVERS_ENV_VAR));
         settings.setKafkaInboundTopic(System.getenv(KAFKA_INBOUND_TOPIC) == null ? "cw2-inbound" : System.getenv(KAFKA_INBOUND_TOPIC));
         settings.setKafkaOutboundTopic(System.getenv(KAFKA_OUTBOUND_TOPIC) == null ? "cw2-outbound" : System.getenv(KAFKA_OUTBOUND_TOPIC));
+        settings.setKafkaProducerProfiles(System.getenv(KAFKA_PRODUCER_PROFILES_ENV_VAR) == null ? "" : System.getenv(KAFKA_PRODUCER_PROFILES_ENV_VAR));
+        settings.setKafkaTopicProfiles(System.getenv(KAFKA_TOPIC_PROFILES_ENV_VAR) == null ? "" : System.getenv(KAFKA_TOPIC_PROFILES_ENV_VAR));
+        settings.setKafkaConsumerPoolMaxSize(System.getenv(KAFKA_CONSUMER_POOL_MAX_SIZE_ENV_VAR) == null ? 8 : Integer.parseInt(System.getenv(KAFKA_CONSUMER_POOL_MAX_SIZE_ENV_VAR)));
+        settings.setKafkaConsumerIdleTimeoutMs(System.getenv(KAFKA_CONSUMER_IDLE_TIMEOUT_MS_ENV_VAR) == null ? 60000 : Long.parseLong(System.getenv(KAFKA_CONSUMER_IDLE_TIMEOUT_MS_ENV_VAR)));
+        settings.setKafkaConsumerPoolMaxWaitMs(System.getenv(KAFKA_CONSUMER_POOL_MAX_WAIT_MS_ENV_VAR) == null ? 10000 : Long.parseLong(System.getenv(KAFKA_CONSUMER_POOL_MAX_WAIT_MS_ENV_VAR)));
+        settings.setKafkaGroupId(System.getenv(KAFKA_GROUP_ID_ENV_VAR));
+        settings.setKafkaMaxPollRecords(System.getenv(KAFKA_MAX_POLL_RECORDS_ENV_VAR) == null ? 500 : Integer.parseInt(System.getenv(KAFKA_MAX_POLL_RECORDS_ENV_VAR)));
+        settings.setKafkaMetadataRefreshMs(System.getenv(KAFKA_METADATA_REFRESH_MS_ENV_VAR) == null ? 30000 : Long.parseLong(System.getenv(KAFKA_METADATA_REFRESH_MS_ENV_VAR)));
 
 
         settings.setRedisHost(System.getenv(REDIS_HOST_ENV_VAR) == null ? "localhost" : System.getenv(REDIS_HOST_ENV_VAR));
         settings.setRedisPort(System.getenv(REDIS_PORT_ENV_VAR) == null ? 6379 : Integer.parseInt(System.getenv(REDIS_PORT_ENV_VAR)));
+        settings.setRedisMode(System.getenv(REDIS_MODE_ENV_VAR) == null ? "standalone" : System.getenv(REDIS_MODE_ENV_VAR));
+        settings.setRedisNodes(System.getenv(REDIS_NODES_ENV_VAR) == null ? List.of(settings.getRedisHost() + ":" + settings.getRedisPort()) : Arrays.stream(System.getenv(REDIS_NODES_ENV_VAR).split(",")).map(String::trim).filter(node -> !node.isEmpty()).toList());
+        settings.setRedisPoolMaxTotal(System.getenv(REDIS_POOL_MAX_TOTAL_ENV_VAR) == null ? 16 : Integer.parseInt(System.getenv(REDIS_POOL_MAX_TOTAL_ENV_VAR)));
+        settings.setRedisPoolMaxIdle(System.getenv(REDIS_POOL_MAX_IDLE_ENV_VAR) == null ? 16 : Integer.parseInt(System.getenv(REDIS_POOL_MAX_IDLE_ENV_VAR)));
+        settings.setRedisPoolMinIdle(System.getenv(REDIS_POOL_MIN_IDLE_ENV_VAR) == null ? 2 : Integer.parseInt(System.getenv(REDIS_POOL_MIN_IDLE_ENV_VAR)));
+        settings.setRedisPoolMaxWaitMs(System.getenv(REDIS_POOL_MAX_WAIT_MS_ENV_VAR) == null ? 2000 : Long.parseLong(System.getenv(REDIS_POOL_MAX_WAIT_MS_ENV_VAR)));
+        settings.setRedisAsyncConnections(System.getenv(REDIS_ASYNC_CONNECTIONS_ENV_VAR) == null ? 2 : Integer.parseInt(System.getenv(REDIS_ASYNC_CONNECTIONS_ENV_VAR)));
+        settings.setCacheValueCodec(System.getenv(CACHE_VALUE_CODEC_ENV_VAR) == null ? "json" : System.getenv(CACHE_VALUE_CODEC_ENV_VAR));
+        settings.setCacheTtlSeconds(System.getenv(CACHE_TTL_SECONDS_ENV_VAR) == null ? "" : System.getenv(CACHE_TTL_SECONDS_ENV_VAR));
+        settings.setCacheSlidingNamespaces(System.getenv(CACHE_SLIDING_NAMESPACES_ENV_VAR) == null ? "" : System.getenv(CACHE_SLIDING_NAMESPACES_ENV_VAR));
+        settings.setTransformWriteBehind(Boolean.parseBoolean(System.getenv(TRANSFORM_WRITE_BEHIND_ENV_VAR)));
+        settings.setNearCacheEnabled(Boolean.parseBoolean(System.getenv(NEAR_CACHE_ENABLED_ENV_VAR)));
+        settings.setNearCacheMaxEntries(System.getenv(NEAR_CACHE_MAX_ENTRIES_ENV_VAR) == null ? 10000 : Integer.parseInt(System.getenv(NEAR_CACHE_MAX_ENTRIES_ENV_VAR)));
+        settings.setNearCacheMaxBytes(System.getenv(NEAR_CACHE_MAX_BYTES_ENV_VAR) == null ? 16 * 1024 * 1024 : Long.parseLong(System.getenv(NEAR_CACHE_MAX_BYTES_ENV_VAR)));
+        settings.setNearCacheTtlMs(System.getenv(NEAR_CACHE_TTL_MS_ENV_VAR) == null ? 30000 : Long.parseLong(System.getenv(NEAR_CACHE_TTL_MS_ENV_VAR)));
         settings.setRabbitMqHost(System.getenv(RABBITMQ_HOST_ENV_VAR) == null ? "localhost" : System.getenv(RABBITMQ_HOST_ENV_VAR));
         settings.setRabbitMqPort(System.getenv(RABBITMQ_PORT_ENV_VAR) == null ? 5672 : Integer.parseInt(System.getenv(RABBITMQ_PORT_ENV_VAR)));
+        settings.setRabbitMqConnections(System.getenv(RABBITMQ_CONNECTIONS_ENV_VAR) == null ? 1 : Integer.parseInt(System.getenv(RABBITMQ_CONNECTIONS_ENV_VAR)));
+        settings.setRabbitMqChannelPoolMaxSize(System.getenv(RABBITMQ_CHANNEL_POOL_MAX_SIZE_ENV_VAR) == null ? 16 : Integer.parseInt(System.getenv(RABBITMQ_CHANNEL_POOL_MAX_SIZE_ENV_VAR)));
+        settings.setRabbitMqChannelPoolMaxWaitMs(System.getenv(RABBITMQ_CHANNEL_POOL_MAX_WAIT_MS_ENV_VAR) == null ? 5000 : Long.parseLong(System.getenv(RABBITMQ_CHANNEL_POOL_MAX_WAIT_MS_ENV_VAR)));
+        settings.setRabbitMqConfirmTimeoutMs(System.getenv(RABBITMQ_CONFIRM_TIMEOUT_MS_ENV_VAR) == null ? 10000 : Long.parseLong(System.getenv(RABBITMQ_CONFIRM_TIMEOUT_MS_ENV_VAR)));
+        settings.setRabbitMqPrefetch(System.getenv(RABBITMQ_PREFETCH_ENV_VAR) == null ? 100 : Integer.parseInt(System.getenv(RABBITMQ_PREFETCH_ENV_VAR)));
+        settings.setRabbitMqQueueType(System.getenv(RABBITMQ_QUEUE_TYPE_ENV_VAR) == null ? "classic" : System.getenv(RABBITMQ_QUEUE_TYPE_ENV_VAR));
+        settings.setRabbitMqQueueLazy(Boolean.parseBoolean(System.getenv(RABBITMQ_QUEUE_LAZY_ENV_VAR)));
+        settings.setRabbitMqQueueMaxLength(System.getenv(RABBITMQ_QUEUE_MAX_LENGTH_ENV_VAR) == null ? 0 : Long.parseLong(System.getenv(RABBITMQ_QUEUE_MAX_LENGTH_ENV_VAR)));
         settings.setStorageServiceUrl(System.getenv(ACP_STORAGE_SERVICE_ENV_VAR) == null ? "https://acp-storage.azurewebsites.net" : System.getenv(ACP_STORAGE_SERVICE_ENV_VAR));
 
         
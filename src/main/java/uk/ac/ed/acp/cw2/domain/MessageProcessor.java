@@ -17,6 +17,7 @@ public class MessageProcessor {
     private static final ObjectMapper objectMapper = new ObjectMapper();
 
     public static final List<String> requiredFields = List.of("uid", "key", "comment", "value");
+    private static final ProcMessageDeserializer decoder = new ProcMessageDeserializer();
 
     private ProcessRequest request;
     private List<ProcMessage> uncheckedMessages;
@@ -52,17 +53,14 @@ public class MessageProcessor {
         sendTotalValues();          // Send totals to queues.
     }
 
-    // Get messages from kafka
+    // Get messages from kafka, decoded straight from the record bytes
     private void receiveMessages(){
-        List<String> messages = kafkaService.receiveCount(request.readTopic, request.messageCount, requiredFields);
-        for (String messageString : messages){
-            try {
-                ProcMessage message = new ProcMessage(messageString);
-                uncheckedMessages.add(message);
-            } catch (Exception e) {
-                logger.error("Error creating message", e);
-            }
+        List<ProcMessage> messages = kafkaService.receiveCount(request.readTopic, request.messageCount, decoder);
+        if (messages == null){
+            logger.error("Error receiving messages from {}", request.readTopic);
+            return;
         }
+        uncheckedMessages.addAll(messages);
     }
 
     // Check if the messages are good or bad, and add totals.       
@@ -1,24 +1,33 @@
 package uk.ac.ed.acp.cw2.domain;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import lombok.Getter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.ac.ed.acp.cw2.model.*;
 import uk.ac.ed.acp.cw2.Utilities.Parser;
+import uk.ac.ed.acp.cw2.Utilities.TransformStateCodec;
 import uk.ac.ed.acp.cw2.service.CacheService;
 import uk.ac.ed.acp.cw2.service.RabbitMqService;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class MessageTransformer {
     private static final Logger logger = LoggerFactory.getLogger(MessageTransformer.class);
     private static final ObjectMapper objectMapper = new ObjectMapper();
-    private static final List<String> requiredFields = List.of("key");
+    private static final int prefetchWindow = 100;          // Messages whose cache state is fetched in one round trip
+    private static final int maxFailedFlushes = 3;          // Failed flushes in a row before the run gives up
 
     @Getter
     private List<TransformMessage> messages;
     private CacheService cacheService;
+    private final TransformStateCodec stateCodec;
     private RabbitMqService rabbitMqService;
     @Getter
     private Integer totalMessagesWritten;   // Number of messages written to queue
@@ -31,9 +40,28 @@ public class MessageTransformer {
     @Getter
     private Float totalAdded;               // Total value of 10.5s added to messages
     private TransformRequest request;
+    private final Map<String, TransformNormal> cacheState;  // Cached state for the current window, null = not cached
+    private boolean cacheStateKnown;                        // False if the window's prefetch failed
+    private final boolean writeBehind;                      // Buffer cache updates and flush them per window
+    private final Map<String, TransformNormal> writeBuffer; // Pending cache updates, highest version per key
+    private int coalescedUpdates;                           // Buffered updates replaced before being flushed
+    private int failedFlushes;                              // Flushes in a row that left updates unwritten
+    private List<ObjectNode> outbound;                      // Messages for the write queue, pushed once per window
 
 
     public MessageTransformer(TransformRequest request, CacheService cacheService, RabbitMqService rabbitMqService){
+        this(request, cacheService, rabbitMqService, false);
+    }
+
+    /**
+     * @param writeBehind if true, cache updates are decided against the prefetched state and buffered per key,
+     *                    keeping only the highest version, then written in one pipelined batch at the end of
+     *                    each prefetch window. Redis still applies each write only if it is newer, so the
+     *                    cache never goes back a version, but the +10.5 decision is no longer atomic with
+     *                    respect to other writers of the same keys.
+     */
+    public MessageTransformer(TransformRequest request, CacheService cacheService, RabbitMqService rabbitMqService,
+                              boolean writeBehind){
         this.totalMessagesWritten = 0;
         this.totalMessagesProcessed = 0;
         this.totalRedisUpdates = 0;
@@ -41,8 +69,13 @@ public class MessageTransformer {
         this.totalAdded = 0.0f;
         this.messages = new ArrayList<>();
         this.cacheService = cacheService;
+        this.stateCodec = cacheService.getStateCodec();
         this.rabbitMqService = rabbitMqService;
         this.request = request;
+        this.cacheState = new HashMap<>();
+        this.writeBehind = writeBehind;
+        this.writeBuffer = new LinkedHashMap<>();
+        this.outbound = new ArrayList<>();
     }
 
     public void transformMessages(){
@@ -56,26 +89,28 @@ public class MessageTransformer {
 
     // ================================ Receive ================================
     private void receiveMessages(){
-        // Receive messages from queue, no timeout
-        List<String> messageStrings = rabbitMqService.receiveCount(request.readQueue, request.messageCount, requiredFields);
-        // Decode messages
-        for (String messageString : messageStrings){
-        try {
-            messages.add(Parser.parseTransformMessage(messageString));
-        } catch (Exception e) {
-                logger.error("Error decoding packet {}", messageString);
-            }
+        // Receive messages from queue, no timeout; each is validated and decoded in one parse
+        List<TransformMessage> received = rabbitMqService.receiveCount(request.readQueue, request.messageCount, Parser::decodeTransformMessage);
+        if (received == null){
+            logger.error("Error receiving messages from {}", request.readQueue);
+            return;
         }
+        messages.addAll(received);
     }
 
     // ================================ Process ================================
     private void processMessages(){
-        int tenPercentageStep = (int) (messages.size()/10);
+        int tenPercentageStep = Math.max(1, messages.size()/10);
         for (int i = 0, size = messages.size(); i < size; i++){
             // output percentage complete
             if (i%tenPercentageStep == 0){
                 logger.info("{}% complete...", (int) ((i/tenPercentageStep)*10));
             }
+            // write out the previous window (cache updates, then its messages) and fetch cache state for the next one
+            if (i%prefetchWindow == 0){
+                flush();
+                prefetch(i, Math.min(i + prefetchWindow, size));
+            }
             TransformMessage message = messages.get(i);
             // Increment total messages processed at the start - before sending data.
             totalMessagesProcessed++;
@@ -86,16 +121,20 @@ public class MessageTransformer {
                 processMessage(t_msg);
             }
         }
+        flush();
+        // Messages are held back while updates are unwritten, so failing here leaves nothing half sent
+        if (!writeBuffer.isEmpty()){
+            throw new RuntimeException("Could not write " + writeBuffer.size() + " buffered cache updates, "
+                    + outbound.size() + " messages not sent");
+        }
     }
 
     private void processMessage(TransformNormal message){
-        if (!cacheService.checkKey(message.key)){
-            cache(message); 
-        } else {
-            TransformNormal cacheMessage = getCachedMessage(message.key);
-            if (cacheMessage == null || message.version > cacheMessage.version){
-                cache(message);
-            }
+        // Skip the round trip when the prefetched state already shows an equal or newer version,
+        // otherwise let redis make the decision atomically.
+        TransformNormal cacheMessage = cacheState.get(message.key);
+        if (cacheMessage == null || message.version > cacheMessage.version){
+            cache(message);
         }
         queueNormal(message);
     }
@@ -107,43 +146,119 @@ public class MessageTransformer {
 
     // ================================ Cache ================================
 
+    // Load the cached state of every key in messages[from, to) with a single MGET.
+    // Keys with an update still waiting in the write buffer are served from the buffer.
+    private void prefetch(int from, int to){
+        cacheState.clear();
+        Set<String> keys = new LinkedHashSet<>();
+        for (int i = from; i < to; i++){
+            if (messages.get(i) instanceof TransformNormal n_msg){
+                TransformNormal buffered = writeBuffer.get(n_msg.key);
+                if (buffered != null){
+                    cacheState.put(n_msg.key, buffered.copy());
+                } else {
+                    keys.add(n_msg.key);
+                }
+            }
+        }
+        try {
+            cacheService.retrieveBytesFromCache(keys).forEach((key, value) -> cacheState.put(key, stateCodec.decode(key, value)));
+            cacheStateKnown = true;
+            logger.debug("Prefetched {} keys for messages {}-{}", keys.size(), from, to);
+        } catch (Exception e) {
+            // State unknown - every message in this window goes to the server-side version check, except
+            // keys with a buffered update, whose newest version is still known from the buffer
+            logger.error("Error prefetching cache state: {}", e.getMessage());
+            cacheState.keySet().retainAll(writeBuffer.keySet());
+            cacheStateKnown = false;
+        }
+    }
+
     private void cache(TransformNormal message){
+        if (writeBehind && cacheStateKnown){
+            // The prefetched state (or the buffer) already shows this version is newer
+            if (writeBuffer.put(message.key, message.copy()) != null){
+                coalescedUpdates++;
+            }
+        } else {
+            boolean written = cacheService.cacheIfNewer(message.key, message.version, stateCodec.encode(message));
+            // Any buffered update for the key is older (processMessage checked), so this write supersedes it
+            writeBuffer.remove(message.key);
+            if (!written){
+                // Another writer holds the same or a newer version
+                logger.debug("Cache for {} already at version >= {}", message.key, message.version);
+                return;
+            }
+        }
         totalRedisUpdates++;
-        cacheService.storeInCache(message.key, message.toJson(objectMapper));
+        cacheState.put(message.key, message.copy());
         message.value += 10.5f;
         totalAdded += 10.5f;
     }
     private void deCache(TransformTombstone message){
-        if (cacheService.checkKey(message.key)){
-            cacheService.removeFromCache(message.key);
+        // A pending update would bring the key back, so drop it before deleting
+        writeBuffer.remove(message.key);
+        // DEL on a missing key is a no-op, so no need to check first
+        cacheService.removeFromCache(message.key);
+        cacheState.put(message.key, null);
+    }
+
+    // Write every buffered cache update, then push the window's messages in one batch. Messages only go out
+    // once the cache updates decided before them are written; until then they wait for a later flush, for at
+    // most maxFailedFlushes windows, so held messages cannot pile up while redis stays unreachable.
+    private void flush(){
+        flushCache();
+        if (writeBuffer.isEmpty()){
+            failedFlushes = 0;
+            pushOutbound();
+        } else if (++failedFlushes >= maxFailedFlushes){
+            throw new RuntimeException("Could not write " + writeBuffer.size() + " buffered cache updates after "
+                    + failedFlushes + " attempts, " + outbound.size() + " messages not sent");
+        } else {
+            logger.warn("Holding {} messages until {} cache updates are written", outbound.size(), writeBuffer.size());
         }
     }
 
-    private TransformNormal getCachedMessage(String key) {
-        TransformNormal message;
-        String cacheValue = cacheService.retrieveFromCache(key);
+    // Write every buffered update in one pipelined batch. On failure the updates stay buffered (and keep being
+    // served from the buffer) until the next flush.
+    private void flushCache(){
+        if (writeBuffer.isEmpty()) return;
+        Map<String, CacheService.VersionedValue> entries = new LinkedHashMap<>();
+        writeBuffer.forEach((key, message) ->
+                entries.put(key, new CacheService.VersionedValue(message.version, stateCodec.encode(message))));
         try {
-            message = objectMapper.readValue(cacheValue, TransformNormal.class);
-        }
-        catch (Exception e) {
-            logger.error("Error decoding json from cache, key: {}", key);
-            message = null;
+            Map<String, Boolean> written = cacheService.cacheIfNewer(entries);
+            logger.debug("Flushed {} cache updates ({} coalesced so far), {} written",
+                    entries.size(), coalescedUpdates, written.values().stream().filter(w -> w).count());
+            writeBuffer.clear();
+        } catch (Exception e) {
+            logger.error("Error flushing {} cache updates: {}", entries.size(), e.getMessage());
         }
-        return message;
     }
 
     // ================================ Queue ================================
 
+    // The window's messages go out on one channel and wait for a single round of publisher confirms. The totals
+    // already count them, so a batch that is not confirmed fails the run rather than being dropped.
+    private void pushOutbound(){
+        if (outbound.isEmpty()) return;
+        if (!rabbitMqService.push(request.writeQueue, outbound)){
+            logger.error("Error pushing {} messages to {}", outbound.size(), request.writeQueue);
+            throw new RuntimeException("Could not push " + outbound.size() + " messages to " + request.writeQueue);
+        }
+        outbound = new ArrayList<>();
+    }
+
     private void queueNormal(TransformNormal message){
         totalValueWritten += message.value;
         totalMessagesWritten++;
-        rabbitMqService.push(request.writeQueue, message.toJson(objectMapper));
+        outbound.add(message.toJson(objectMapper));
     }
 
     private void queueTombstone(TransformTombstone message){
         totalValueWritten += message.value;
         OutboundTombstone outboundTombstone = new OutboundTombstone(totalMessagesWritten, totalMessagesProcessed, totalRedisUpdates, totalValueWritten, totalAdded);
-        rabbitMqService.push(request.writeQueue, outboundTombstone.toJson(objectMapper));
+        outbound.add(outboundTombstone.toJson(objectMapper));
     }
 
 
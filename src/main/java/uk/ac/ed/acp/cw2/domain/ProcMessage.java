@@ -1,6 +1,7 @@
 package uk.ac.ed.acp.cw2.domain;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.slf4j.Logger;
@@ -12,6 +13,7 @@ import java.util.List;
 public class ProcMessage {
     private static final Logger logger = LoggerFactory.getLogger(ProcMessage.class);
     private static final ObjectMapper objectMapper = new ObjectMapper();
+    static final List<String> requiredData = Arrays.asList("uid", "key", "comment", "value");
     
     public final ObjectNode jsonData;
     private String uuid;
@@ -28,21 +30,16 @@ public class ProcMessage {
     public ProcMessage(String jsonString) throws JsonProcessingException {
         logger.debug("Creating message with string {}", jsonString);
         ObjectNode data = null;
-        List<String> requiredData = Arrays.asList("uid", "key", "comment", "value");
 
         try {
             // Parse the original JSON
             ObjectNode originalData = (ObjectNode) objectMapper.readTree(jsonString);
 
             // Ignore any extra fields
-            data = objectMapper.createObjectNode();
-            for (String field : requiredData) {
-                if (originalData.has(field)) {
-                    data.set(field, originalData.get(field));
-                } else {
-                    logger.error("Incorrect message fields");
-                    throw new RuntimeException("Invalid Message");
-                }
+            data = selectFields(originalData);
+            if (data == null) {
+                logger.error("Incorrect message fields");
+                throw new RuntimeException("Invalid Message");
             }
         } catch (Exception e) {
             logger.error("Error parsing JSON string: {}", jsonString, e);
@@ -53,6 +50,50 @@ public class ProcMessage {
         logger.debug("Created message with data{}", jsonData);
     }
 
+    private ProcMessage(ObjectNode data) {
+        jsonData = data;
+    }
+
+    /**
+     * Decoder for the receive APIs: parses the message once, and keeps it only if it has every required field.
+     *
+     * @return the message, or null if it is not a JSON object with the required fields
+     */
+    public static ProcMessage decode(String jsonString) {
+        ObjectNode data;
+        try {
+            JsonNode originalData = objectMapper.readTree(jsonString);
+            data = originalData instanceof ObjectNode ? selectFields((ObjectNode) originalData) : null;
+        } catch (Exception e) {
+            logger.error("Error parsing JSON string {}: {}", jsonString, e.getMessage());
+            return null;
+        }
+        if (data == null) {
+            logger.debug("Message missing required fields: {}", jsonString);
+            return null;
+        }
+        return new ProcMessage(data);
+    }
+
+    // Message made from the values of the required fields, given in requiredData order
+    static ProcMessage fromFields(JsonNode[] values) {
+        ObjectNode data = objectMapper.createObjectNode();
+        for (int i = 0; i < values.length; i++) {
+            data.set(requiredData.get(i), values[i]);
+        }
+        return new ProcMessage(data);
+    }
+
+    // Copy of the required fields only, or null if one is missing
+    private static ObjectNode selectFields(ObjectNode originalData) {
+        ObjectNode data = objectMapper.createObjectNode();
+        for (String field : requiredData) {
+            if (!originalData.has(field)) return null;
+            data.set(field, originalData.get(field));
+        }
+        return data;
+    }
+
     public boolean checkGood(float runningTotalValue) {
         try{
             String key = getKey();
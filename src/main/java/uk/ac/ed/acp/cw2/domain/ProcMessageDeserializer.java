@@ -0,0 +1,77 @@
+package uk.ac.ed.acp.cw2.domain;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ed.acp.cw2.Utilities.MessageDecoder;
+
+import java.io.IOException;
+
+/**
+ * Builds a {@link ProcMessage} straight from the raw bytes of a record with Jackson's streaming parser. Only
+ * uid, key, comment and value are turned into nodes; every other field is skipped without being built, and a
+ * record that is not an object with all four is rejected as soon as that is known, without a tree of it ever
+ * being made. Rejected records decode to null.
+ * <p>
+ * Works both as a Kafka value deserializer and as a {@link MessageDecoder} for the broker receive APIs.
+ */
+public class ProcMessageDeserializer implements Deserializer<ProcMessage>, MessageDecoder<ProcMessage> {
+    private static final Logger logger = LoggerFactory.getLogger(ProcMessageDeserializer.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Override
+    public ProcMessage deserialize(String topic, byte[] data) {
+        return decode(data);
+    }
+
+    @Override
+    public ProcMessage decode(byte[] message) {
+        if (message == null) return null;
+        try (JsonParser parser = objectMapper.createParser(message)) {
+            return read(parser);
+        } catch (IOException e) {
+            logger.error("Error parsing message: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public ProcMessage decode(String message) {
+        if (message == null) return null;
+        try (JsonParser parser = objectMapper.createParser(message)) {
+            return read(parser);
+        } catch (IOException e) {
+            logger.error("Error parsing message: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    // One pass over the top level object; a field seen twice keeps its last value, as with a tree
+    private static ProcMessage read(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            logger.debug("Message is not a JSON object");
+            return null;
+        }
+        JsonNode[] values = new JsonNode[ProcMessage.requiredData.size()];
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            int index = ProcMessage.requiredData.indexOf(parser.currentName());
+            parser.nextToken();
+            if (index >= 0) {
+                values[index] = objectMapper.readTree(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                logger.debug("Message missing required field '{}'", ProcMessage.requiredData.get(i));
+                return null;
+            }
+        }
+        return ProcMessage.fromFields(values);
+    }
+}
@@ -0,0 +1,19 @@
+package uk.ac.ed.acp.cw2.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory report for the cache: per namespace key counts and estimated memory, and the memory use and
+ * eviction policy of each Redis node.
+ */
+public class CacheStats {
+    public Map<String, NamespaceStats> namespaces = new LinkedHashMap<>();
+    public Map<String, NodeStats> nodes = new LinkedHashMap<>();
+
+    public static class NodeStats {
+        public long usedMemory;
+        public long maxMemory;
+        public String maxMemoryPolicy;
+    }
+}
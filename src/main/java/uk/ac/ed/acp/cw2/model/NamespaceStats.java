@@ -0,0 +1,20 @@
+package uk.ac.ed.acp.cw2.model;
+
+/**
+ * Key count and approximate memory of one cache key namespace. Memory is estimated from MEMORY USAGE of
+ * a sample of the namespace's keys, scaled up to the full key count.
+ */
+public class NamespaceStats {
+    public String namespace;
+    public long keys;
+    public int sampledWithTtl;
+    public int sampledKeys;
+    public long sampledBytes;
+    public long estimatedBytes;
+    public long ttlSeconds;
+    public boolean sliding;
+
+    public NamespaceStats(String namespace) {
+        this.namespace = namespace;
+    }
+}
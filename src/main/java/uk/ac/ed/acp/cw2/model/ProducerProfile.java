@@ -0,0 +1,39 @@
+package uk.ac.ed.acp.cw2.model;
+
+import java.util.Properties;
+
+/**
+ * Named set of Kafka producer throughput settings.
+ */
+public class ProducerProfile {
+    public String name;
+    public String compressionType = "none";
+    public int batchSize = 16384;
+    public int lingerMs = 5;
+    public long bufferMemory = 32 * 1024 * 1024;
+    public int maxInFlight = 5;
+
+    public ProducerProfile() {
+    }
+
+    public ProducerProfile(String name, String compressionType, int batchSize, int lingerMs, long bufferMemory, int maxInFlight) {
+        this.name = name;
+        this.compressionType = compressionType;
+        this.batchSize = batchSize;
+        this.lingerMs = lingerMs;
+        this.bufferMemory = bufferMemory;
+        this.maxInFlight = maxInFlight;
+    }
+
+    public void applyTo(Properties properties) {
+        properties.put("compression.type", compressionType);
+        properties.put("batch.size", String.valueOf(batchSize));
+        properties.put("linger.ms", String.valueOf(lingerMs));
+        properties.put("buffer.memory", String.valueOf(bufferMemory));
+        properties.put("max.in.flight.requests.per.connection", String.valueOf(maxInFlight));
+    }
+
+    public ProducerProfile copy(String name) {
+        return new ProducerProfile(name, compressionType, batchSize, lingerMs, bufferMemory, maxInFlight);
+    }
+}
@@ -0,0 +1,23 @@
+package uk.ac.ed.acp.cw2.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of publishing a batch of messages: success and last error per message (in the order given),
+ * totals, and the time the whole batch took.
+ */
+public class PublishResult {
+    public String profile;
+    public int sent;
+    public int failed;
+    public long elapsedMs;
+    public List<Boolean> success;
+    public List<String> errors;
+
+    public PublishResult(int size) {
+        this.success = new ArrayList<>(Collections.nCopies(size, false));
+        this.errors = new ArrayList<>(Collections.nCopies(size, null));
+    }
+}
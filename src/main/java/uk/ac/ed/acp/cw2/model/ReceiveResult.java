@@ -0,0 +1,31 @@
+package uk.ac.ed.acp.cw2.model;
+
+import java.util.List;
+
+/**
+ * Outcome of reading a queue: the messages accepted, their total size, why the read stopped, and how long it took.
+ */
+public class ReceiveResult<T> {
+    public enum StopReason {
+        // The requested number of messages was accepted
+        COUNT,
+        // The timeout passed first
+        DEADLINE,
+        // The next message would have taken the read past its byte budget
+        BYTES,
+        // The consumer was cancelled by the broker or lost its channel
+        CANCELLED
+    }
+
+    public List<T> messages;
+    public long bytes;
+    public StopReason stopReason;
+    public long elapsedMs;
+
+    public ReceiveResult(List<T> messages, long bytes, StopReason stopReason, long elapsedMs) {
+        this.messages = messages;
+        this.bytes = bytes;
+        this.stopReason = stopReason;
+        this.elapsedMs = elapsedMs;
+    }
+}
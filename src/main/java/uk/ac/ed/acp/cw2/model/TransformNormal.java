@@ -18,4 +18,12 @@ public class TransformNormal extends TransformMessage{
     public String type(){
         return "TransformNormal";
     }
+
+    public TransformNormal copy(){
+        TransformNormal copy = new TransformNormal();
+        copy.key = key;
+        copy.version = version;
+        copy.value = value;
+        return copy;
+    }
 }
@@ -0,0 +1,328 @@
+package uk.ac.ed.acp.cw2.service;
+
+import io.lettuce.core.GetExArgs;
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.SetArgs;
+import io.lettuce.core.api.StatefulConnection;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.internal.HostAndPort;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import uk.ac.ed.acp.cw2.Utilities.CacheExpiryPolicy;
+import uk.ac.ed.acp.cw2.data.RuntimeEnvironment;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking counterpart of {@link CacheService}. Every operation returns a {@link CompletableFuture}
+ * instead of blocking the calling thread, so callers can overlap cache I/O with other work.
+ * <p>
+ * Backed by Lettuce, which pipelines any number of in-flight commands over a single connection; a small
+ * fixed set of connections (REDIS_ASYNC_CONNECTIONS) is used round robin. Connections are opened when the
+ * service starts, so no call ever waits for one. Reads go through the same near cache as {@link CacheService}
+ * and writes invalidate it.
+ * <p>
+ * Follows REDIS_MODE like {@link CacheService}: in cluster mode the Lettuce cluster client routes commands
+ * by slot, in sharded mode each node has its own connections and keys are routed by the same
+ * {@link RedisShards} as {@link CacheService}, with batches split per node.
+ */
+@Service
+public class AsyncCacheService {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncCacheService.class);
+    private static final RedisCodec<String, byte[]> codec = RedisCodec.of(StringCodec.UTF8, ByteArrayCodec.INSTANCE);
+    private static final String ANY_NODE = "*";
+
+    private final RuntimeEnvironment environment;
+    private final RedisShards shards;
+    private final NearCache nearCache;
+    private final CacheExpiryPolicy expiryPolicy;
+    // Only sharded mode has a connection group per node; the cluster client routes by slot itself
+    private final boolean sharded;
+    private final AtomicInteger next = new AtomicInteger();
+    private final List<StatefulConnection<String, byte[]>> open = new ArrayList<>();
+    private RedisClient client;
+    private RedisClusterClient clusterClient;
+    private volatile Map<String, List<RedisClusterAsyncCommands<String, byte[]>>> connections;
+
+    public AsyncCacheService(RuntimeEnvironment environment, RedisShards shards, NearCache nearCache, CacheExpiryPolicy expiryPolicy) {
+        this.environment = environment;
+        this.shards = shards;
+        this.nearCache = nearCache;
+        this.expiryPolicy = expiryPolicy;
+        this.sharded = "sharded".equalsIgnoreCase(environment.getRedisMode());
+    }
+
+    // ================================ Single key ================================
+
+    public CompletableFuture<Boolean> checkKey(String key) {
+        if (nearCache.get(key) != null) return CompletableFuture.completedFuture(true);
+        return commands(key).exists(key).toCompletableFuture().thenApply(count -> count > 0);
+    }
+
+    public CompletableFuture<String> retrieveFromCache(String cacheKey) {
+        return retrieveBytesFromCache(cacheKey).thenApply(AsyncCacheService::toString);
+    }
+
+    public CompletableFuture<byte[]> retrieveBytesFromCache(String cacheKey) {
+        byte[] near = nearCache.get(cacheKey);
+        if (near != null) return CompletableFuture.completedFuture(near);
+        long stamp = nearCache.stamp(cacheKey);
+        return read(cacheKey).thenApply(value -> {
+            cacheLocally(cacheKey, value, stamp);
+            return value;
+        });
+    }
+
+    public CompletableFuture<Void> storeInCache(String cacheKey, String cacheValue) {
+        return storeInCache(cacheKey, cacheValue.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public CompletableFuture<Void> storeInCache(String cacheKey, byte[] cacheValue) {
+        return write(cacheKey, cacheValue)
+                .whenComplete((result, e) -> nearCache.invalidate(cacheKey))
+                .thenApply(result -> null);
+    }
+
+    public CompletableFuture<Void> removeFromCache(String cacheKey) {
+        return commands(cacheKey).del(cacheKey).toCompletableFuture()
+                .whenComplete((result, e) -> nearCache.invalidate(cacheKey))
+                .thenApply(result -> null);
+    }
+
+    // ================================ Batch ================================
+
+    public CompletableFuture<Map<String, Boolean>> checkKeys(Collection<String> keys) {
+        // One EXISTS per key, all written to the connection before any reply is awaited
+        Map<String, CompletableFuture<Long>> pending = new LinkedHashMap<>();
+        for (String key : keys) {
+            pending.put(key, commands(key).exists(key).toCompletableFuture());
+        }
+        return CompletableFuture.allOf(pending.values().toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            Map<String, Boolean> result = new LinkedHashMap<>();
+            pending.forEach((key, future) -> result.put(key, future.join() > 0));
+            return result;
+        });
+    }
+
+    public CompletableFuture<Map<String, String>> retrieveFromCache(Collection<String> cacheKeys) {
+        return retrieveBytesFromCache(cacheKeys).thenApply(values -> {
+            Map<String, String> result = new LinkedHashMap<>();
+            values.forEach((key, value) -> result.put(key, toString(value)));
+            return result;
+        });
+    }
+
+    public CompletableFuture<Map<String, byte[]>> retrieveBytesFromCache(Collection<String> cacheKeys) {
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        List<String> keys = new ArrayList<>();
+        Map<String, Long> stamps = new LinkedHashMap<>();
+        for (String key : cacheKeys) {
+            byte[] near = nearCache.get(key);
+            if (near != null) {
+                result.put(key, near);
+            } else {
+                keys.add(key);
+                stamps.put(key, nearCache.stamp(key));
+            }
+        }
+        if (keys.isEmpty()) return CompletableFuture.completedFuture(result);
+        // Keys in sliding namespaces need a GETEX each to renew their TTL, the rest share one MGET per node.
+        // All of them are in flight at once.
+        List<String> plain = new ArrayList<>();
+        Map<String, CompletableFuture<byte[]>> renewed = new LinkedHashMap<>();
+        for (String key : keys) {
+            if (expiryPolicy.isSliding(key)) {
+                renewed.put(key, read(key));
+            } else {
+                plain.add(key);
+            }
+        }
+        List<CompletableFuture<List<KeyValue<String, byte[]>>>> parts = new ArrayList<>();
+        if (!plain.isEmpty()) {
+            groupByNode(plain).forEach((node, nodeKeys) ->
+                    parts.add(commandsForNode(node).mget(nodeKeys.toArray(new String[0])).toCompletableFuture()));
+        }
+        List<CompletableFuture<?>> pending = new ArrayList<>(parts);
+        pending.addAll(renewed.values());
+        return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            for (CompletableFuture<List<KeyValue<String, byte[]>>> part : parts) {
+                for (KeyValue<String, byte[]> value : part.join()) {
+                    byte[] bytes = value.hasValue() ? value.getValue() : null;
+                    result.put(value.getKey(), bytes);
+                    cacheLocally(value.getKey(), bytes, stamps.get(value.getKey()));
+                }
+            }
+            renewed.forEach((key, value) -> {
+                result.put(key, value.join());
+                cacheLocally(key, value.join(), stamps.get(key));
+            });
+            return result;
+        });
+    }
+
+    public CompletableFuture<Void> storeInCache(Map<String, String> entries) {
+        if (entries.isEmpty()) return CompletableFuture.completedFuture(null);
+        // MSET cannot set a TTL, so keys that expire get a SET each
+        Map<String, byte[]> values = new LinkedHashMap<>();
+        List<CompletableFuture<?>> parts = new ArrayList<>();
+        entries.forEach((key, value) -> {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (expiryPolicy.ttlSeconds(key) > 0) {
+                parts.add(write(key, bytes));
+            } else {
+                values.put(key, bytes);
+            }
+        });
+        if (!values.isEmpty()) {
+            groupByNode(values.keySet()).forEach((node, nodeKeys) -> {
+                Map<String, byte[]> nodeValues = new LinkedHashMap<>();
+                nodeKeys.forEach(key -> nodeValues.put(key, values.get(key)));
+                parts.add(commandsForNode(node).mset(nodeValues).toCompletableFuture());
+            });
+        }
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((result, e) -> entries.keySet().forEach(nearCache::invalidate));
+    }
+
+    public CompletableFuture<Void> removeFromCache(Collection<String> cacheKeys) {
+        if (cacheKeys.isEmpty()) return CompletableFuture.completedFuture(null);
+        List<CompletableFuture<Long>> parts = new ArrayList<>();
+        groupByNode(cacheKeys).forEach((node, nodeKeys) ->
+                parts.add(commandsForNode(node).del(nodeKeys.toArray(new String[0])).toCompletableFuture()));
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((result, e) -> cacheKeys.forEach(nearCache::invalidate));
+    }
+
+    // Sliding keys bypass the near cache, as in CacheService: the GETEX renewal publishes an expire event
+    // that would evict the entry straight away, and near cache hits would not renew the TTL
+    private void cacheLocally(String key, byte[] value, long stamp) {
+        if (!expiryPolicy.isSliding(key)) nearCache.put(key, value, stamp);
+    }
+
+    // GET, or GETEX renewing the TTL in sliding namespaces
+    private CompletableFuture<byte[]> read(String cacheKey) {
+        if (expiryPolicy.isSliding(cacheKey)) {
+            return commands(cacheKey).getex(cacheKey, GetExArgs.Builder.ex(expiryPolicy.ttlSeconds(cacheKey))).toCompletableFuture();
+        }
+        return commands(cacheKey).get(cacheKey).toCompletableFuture();
+    }
+
+    // SET with the namespace TTL, if any
+    private CompletableFuture<String> write(String cacheKey, byte[] cacheValue) {
+        long ttl = expiryPolicy.ttlSeconds(cacheKey);
+        if (ttl > 0) {
+            return commands(cacheKey).set(cacheKey, cacheValue, SetArgs.Builder.ex(ttl)).toCompletableFuture();
+        }
+        return commands(cacheKey).set(cacheKey, cacheValue).toCompletableFuture();
+    }
+
+    // ================================ Connections ================================
+
+    // In sharded mode keys are routed by the same RedisShards as CacheService; standalone and cluster modes
+    // use a single group, as the cluster client splits multi-key commands by slot itself
+    private Map<String, List<String>> groupByNode(Collection<String> keys) {
+        if (!sharded) return Map.of(ANY_NODE, new ArrayList<>(keys));
+        return shards.groupByNode(keys);
+    }
+
+    private String nodeFor(String key) {
+        return sharded ? shards.nodeFor(key) : ANY_NODE;
+    }
+
+    private RedisClusterAsyncCommands<String, byte[]> commands(String key) {
+        return commandsForNode(nodeFor(key));
+    }
+
+    private RedisClusterAsyncCommands<String, byte[]> commandsForNode(String node) {
+        Map<String, List<RedisClusterAsyncCommands<String, byte[]>>> current = connections;
+        if (current == null) throw new IllegalStateException("Async cache service is not connected");
+        List<RedisClusterAsyncCommands<String, byte[]>> nodeCommands = current.get(node);
+        if (nodeCommands == null) throw new IllegalArgumentException("Unknown redis node " + node);
+        return nodeCommands.get(Math.floorMod(next.getAndIncrement(), nodeCommands.size()));
+    }
+
+    @PostConstruct
+    public synchronized void connect() {
+        if (connections != null) return;
+        Map<String, List<RedisClusterAsyncCommands<String, byte[]>>> opened = new LinkedHashMap<>();
+        int count = environment.getRedisAsyncConnections();
+        switch (environment.getRedisMode().toLowerCase()) {
+            case "cluster" -> {
+                List<RedisURI> seeds = environment.getRedisNodes().stream().map(AsyncCacheService::toUri).toList();
+                clusterClient = RedisClusterClient.create(seeds);
+                for (int i = 0; i < count; i++) {
+                    StatefulRedisClusterConnection<String, byte[]> connection = clusterClient.connect(codec);
+                    open.add(connection);
+                    opened.computeIfAbsent(ANY_NODE, node -> new ArrayList<>()).add(connection.async());
+                }
+            }
+            case "sharded" -> {
+                client = RedisClient.create();
+                for (String node : shards.getNodes()) {
+                    for (int i = 0; i < count; i++) {
+                        StatefulRedisConnection<String, byte[]> connection = client.connect(codec, toUri(node));
+                        open.add(connection);
+                        opened.computeIfAbsent(node, key -> new ArrayList<>()).add(connection.async());
+                    }
+                }
+            }
+            default -> {
+                client = RedisClient.create(RedisURI.create(environment.getRedisHost(), environment.getRedisPort()));
+                for (int i = 0; i < count; i++) {
+                    StatefulRedisConnection<String, byte[]> connection = client.connect(codec);
+                    open.add(connection);
+                    opened.computeIfAbsent(ANY_NODE, node -> new ArrayList<>()).add(connection.async());
+                }
+            }
+        }
+        logger.info("Opened {} async redis connections", open.size());
+        connections = opened;
+    }
+
+    // Uses already open connections instead of connect(), keyed by node ("*" unless sharded)
+    synchronized void connect(Map<String, List<RedisClusterAsyncCommands<String, byte[]>>> opened) {
+        connections = opened;
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        open.forEach(StatefulConnection::close);
+        open.clear();
+        connections = null;
+        if (client != null) {
+            client.shutdown();
+            client = null;
+        }
+        if (clusterClient != null) {
+            clusterClient.shutdown();
+            clusterClient = null;
+        }
+    }
+
+    private static RedisURI toUri(String node) {
+        HostAndPort hostAndPort = HostAndPort.parse(node);
+        return RedisURI.create(hostAndPort.getHostText(), hostAndPort.getPort());
+    }
+
+    private static String toString(byte[] value) {
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+}
@@ -1,44 +1,141 @@
 package uk.ac.ed.acp.cw2.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.GetExParams;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.resps.ScanResult;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.jedis.util.JedisClusterCRC16;
+import redis.clients.jedis.util.SafeEncoder;
+import uk.ac.ed.acp.cw2.Utilities.CacheExpiryPolicy;
+import uk.ac.ed.acp.cw2.Utilities.TransformStateCodec;
 import uk.ac.ed.acp.cw2.data.RuntimeEnvironment;
+import uk.ac.ed.acp.cw2.model.CacheStats;
+import uk.ac.ed.acp.cw2.model.NamespaceStats;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Service class responsible for managing cache storage using Redis.
  * Provides functionality to retrieve and store key-value pairs in the cache.
+ * Keys are routed to the node that owns them (see {@link RedisShards}); batch operations are split per node
+ * and the parts run in parallel.
  */
 @Service
 public class CacheService {
     private static final Logger logger = LoggerFactory.getLogger(CacheService.class);
     private final RuntimeEnvironment environment;
+    private final RedisShards shards;
+    private final NearCache nearCache;
+    @Getter
+    private final TransformStateCodec stateCodec;
+    @Getter
+    private final CacheExpiryPolicy expiryPolicy;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    public CacheService(RuntimeEnvironment environment) {
+    // Writes ARGV[2] to KEYS[1] only if the stored value has no version, or a version lower than ARGV[1].
+    // The stored version is read from either the binary layout (0xB1 marker, int32 version) or a JSON object.
+    // ARGV[3] is the TTL in seconds to set with the value, 0 for none.
+    // Returns 1 if the value was written, 0 otherwise.
+    private static final String CACHE_IF_NEWER_SCRIPT = String.join("\n",
+            "local current = redis.call('GET', KEYS[1])",
+            "if current then",
+            "  local stored",
+            "  if #current == 9 and string.byte(current, 1) == 0xB1 then",
+            "    stored = struct.unpack('>i4', current, 2)",
+            "  else",
+            "    local ok, decoded = pcall(cjson.decode, current)",
+            "    if ok and type(decoded) == 'table' then stored = tonumber(decoded['version']) end",
+            "  end",
+            "  if stored and stored >= tonumber(ARGV[1]) then",
+            "    return 0",
+            "  end",
+            "end",
+            "if tonumber(ARGV[3]) > 0 then",
+            "  redis.call('SET', KEYS[1], ARGV[2], 'EX', ARGV[3])",
+            "else",
+            "  redis.call('SET', KEYS[1], ARGV[2])",
+            "end",
+            "return 1");
+    private static final byte[] CACHE_IF_NEWER_SHA = SafeEncoder.encode(sha1Hex(CACHE_IF_NEWER_SCRIPT));
+
+    // Runs per-node parts of a batch in parallel when the keys span several nodes; one thread per node, so
+    // concurrent batches queue up instead of each starting threads of their own
+    private final ExecutorService shardExecutor;
+
+    public CacheService(RuntimeEnvironment environment, RedisShards shards, NearCache nearCache,
+                        TransformStateCodec stateCodec, CacheExpiryPolicy expiryPolicy) {
         this.environment = environment;
+        this.shards = shards;
+        this.nearCache = nearCache;
+        this.stateCodec = stateCodec;
+        this.expiryPolicy = expiryPolicy;
+        this.shardExecutor = Executors.newFixedThreadPool(Math.max(1, shards.getNodes().size()), runnable -> {
+            Thread thread = new Thread(runnable, "redis-shard-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        shardExecutor.shutdownNow();
     }
 
     public Boolean checkKey(String key){
-        try (JedisPool pool = new JedisPool(environment.getRedisHost(), environment.getRedisPort()); Jedis jedis = pool.getResource()) {
-            logger.debug("Checking {}", key);
-            return (jedis.exists(key));
-        }
+        if (nearCache.get(key) != null) return true;
+        logger.debug("Checking {}", key);
+        return onNode(key, jedis -> jedis.exists(key));
     }
 
     public String retrieveFromCache(String cacheKey) {
-        logger.debug(String.format("Retrieving %s from cache", cacheKey));
-        try (JedisPool pool = new JedisPool(environment.getRedisHost(), environment.getRedisPort()); Jedis jedis = pool.getResource()) {
-            logger.debug("Redis connection established");
+        byte[] result = retrieveBytesFromCache(cacheKey);
+        return result == null ? null : new String(result, StandardCharsets.UTF_8);
+    }
 
-            String result = null;
-            if (jedis.exists(cacheKey)) {
-                result = jedis.get(cacheKey);
-            }
+    /**
+     * Reads the value exactly as stored, so binary values (see {@link TransformStateCodec}) survive the trip
+     * and are cached in the near cache unchanged.
+     */
+    public byte[] retrieveBytesFromCache(String cacheKey) {
+        logger.debug(String.format("Retrieving %s from cache", cacheKey));
+        byte[] near = nearCache.get(cacheKey);
+        if (near != null) return near;
+        long stamp = nearCache.stamp(cacheKey);
+        try {
+            // GET already returns null for a missing key, so no separate EXISTS round trip.
+            // In sliding namespaces GETEX renews the TTL in the same round trip; those keys skip the near cache.
+            GetExParams renew = expiryPolicy.getExParams(cacheKey);
+            byte[] rawKey = SafeEncoder.encode(cacheKey);
+            byte[] result = onNode(cacheKey, jedis -> renew == null ? jedis.get(rawKey) : jedis.getEx(rawKey, renew));
+            if (result != null) cacheLocally(cacheKey, result, stamp);
             return result;
         } catch (Exception e) {
             logger.error(e.getMessage());
@@ -48,11 +145,14 @@ public class CacheService {
 
     public void storeInCache(String cacheKey, String cacheValue) {
         logger.debug(String.format("Storing %s in cache with key %s", cacheValue, cacheKey));
-        try (JedisPool pool = new JedisPool(environment.getRedisHost(), environment.getRedisPort()); Jedis jedis = pool.getResource()) {
-            jedis.set(cacheKey, cacheValue);
+        try {
+            SetParams expiry = expiryPolicy.setParams(cacheKey);
+            onNode(cacheKey, jedis -> expiry == null ? jedis.set(cacheKey, cacheValue) : jedis.set(cacheKey, cacheValue, expiry));
         } catch (Exception e) {
             logger.error(e.getMessage());
             throw e;
+        } finally {
+            nearCache.invalidate(cacheKey);
         }
     }
 
@@ -66,11 +166,426 @@ public class CacheService {
     }
 
     public void removeFromCache(String cacheKey){
-        try (JedisPool pool = new JedisPool(environment.getRedisHost(), environment.getRedisPort()); Jedis jedis = pool.getResource()) {
-            jedis.del(cacheKey);
+        try {
+            onNode(cacheKey, jedis -> jedis.del(cacheKey));
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            throw e;
+        } finally {
+            nearCache.invalidate(cacheKey);
+        }
+    }
+
+    // Keys in sliding namespaces are never cached locally. A near cache hit would not renew their TTL, and the
+    // GETEX that does renew it makes Redis publish an expire event that would evict the entry just cached.
+    private void cacheLocally(String key, byte[] value, long stamp) {
+        if (!expiryPolicy.isSliding(key)) nearCache.put(key, value, stamp);
+    }
+
+    // ================================ Compare and set ================================
+
+    /**
+     * Atomically stores a value only if its version is newer than the version of the value already cached
+     * under the key. The comparison runs server side in a Lua script, so it costs a single round trip and
+     * cannot race with other writers.
+     *
+     * @return true if the value was written, false if the cached version was the same or newer
+     */
+    public boolean cacheIfNewer(String cacheKey, int version, byte[] cacheValue) {
+        logger.debug("Storing {} bytes in cache with key {} if newer than version {}", cacheValue.length, cacheKey, version);
+        List<byte[]> keys = List.of(SafeEncoder.encode(cacheKey));
+        List<byte[]> args = List.of(SafeEncoder.encode(String.valueOf(version)), cacheValue,
+                SafeEncoder.encode(String.valueOf(expiryPolicy.ttlSeconds(cacheKey))));
+        try {
+            Object written = onNode(cacheKey, jedis -> {
+                try {
+                    return jedis.evalsha(CACHE_IF_NEWER_SHA, keys, args);
+                } catch (JedisNoScriptException e) {
+                    // First use on this node, or its script cache was flushed - load it and retry once
+                    logger.info("Loading cache-if-newer script");
+                    jedis.scriptLoad(SafeEncoder.encode(CACHE_IF_NEWER_SCRIPT));
+                    return jedis.evalsha(CACHE_IF_NEWER_SHA, keys, args);
+                }
+            });
+            return Long.valueOf(1L).equals(written);
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            throw e;
+        } finally {
+            nearCache.invalidate(cacheKey);
+        }
+    }
+
+    public boolean cacheIfNewer(String cacheKey, int version, String cacheValue) {
+        return cacheIfNewer(cacheKey, version, cacheValue.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public boolean cacheIfNewer(String cacheKey, int version, ObjectNode cacheValue) {
+        try {
+            return cacheIfNewer(cacheKey, version, objectMapper.writeValueAsString(cacheValue));
+        } catch (JsonProcessingException e) {
+            logger.error("Error converting ObjectNode to JSON string: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Value to store with {@link #cacheIfNewer(Map)}, along with the version it is compared on.
+     */
+    public record VersionedValue(int version, byte[] value) {}
+
+    /**
+     * Batch form of {@link #cacheIfNewer(String, int, byte[])}: the version check runs server side per key,
+     * with one pipeline per node.
+     *
+     * @return for each key, true if its value was written
+     */
+    public Map<String, Boolean> cacheIfNewer(Map<String, VersionedValue> entries) {
+        if (entries.isEmpty()) return new LinkedHashMap<>();
+        try {
+            Map<String, Boolean> result = perNode(entries.keySet(), (jedis, nodeKeys) -> {
+                try {
+                    return cacheIfNewerPipelined(jedis, nodeKeys, entries);
+                } catch (JedisNoScriptException e) {
+                    // The script check is idempotent, so the whole node batch can simply run again once loaded
+                    logger.info("Loading cache-if-newer script");
+                    jedis.scriptLoad(SafeEncoder.encode(CACHE_IF_NEWER_SCRIPT));
+                    return cacheIfNewerPipelined(jedis, nodeKeys, entries);
+                }
+            });
+            logger.debug("Stored {} keys if newer", entries.size());
+            return result;
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            throw e;
+        } finally {
+            entries.keySet().forEach(nearCache::invalidate);
+        }
+    }
+
+    private Map<String, Boolean> cacheIfNewerPipelined(Jedis jedis, List<String> keys, Map<String, VersionedValue> entries) {
+        Pipeline pipeline = jedis.pipelined();
+        Map<String, Response<Object>> responses = new LinkedHashMap<>();
+        for (String key : keys) {
+            VersionedValue entry = entries.get(key);
+            responses.put(key, pipeline.evalsha(CACHE_IF_NEWER_SHA,
+                    List.of(SafeEncoder.encode(key)),
+                    List.of(SafeEncoder.encode(String.valueOf(entry.version())), entry.value(),
+                            SafeEncoder.encode(String.valueOf(expiryPolicy.ttlSeconds(key))))));
+        }
+        pipeline.sync();
+        Map<String, Boolean> written = new LinkedHashMap<>();
+        responses.forEach((key, response) -> written.put(key, Long.valueOf(1L).equals(response.get())));
+        return written;
+    }
+
+    // ================================ Batch ================================
+
+    public Map<String, Boolean> checkKeys(Collection<String> keys) {
+        if (keys.isEmpty()) return new LinkedHashMap<>();
+        try {
+            Map<String, Boolean> result = perNode(keys, (jedis, nodeKeys) -> {
+                Pipeline pipeline = jedis.pipelined();
+                Map<String, Response<Boolean>> responses = new LinkedHashMap<>();
+                for (String key : nodeKeys) {
+                    responses.put(key, pipeline.exists(key));
+                }
+                pipeline.sync();
+                Map<String, Boolean> found = new LinkedHashMap<>();
+                responses.forEach((key, response) -> found.put(key, response.get()));
+                return found;
+            });
+            logger.debug("Checked {} keys", keys.size());
+            return result;
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            throw e;
+        }
+    }
+
+    public Map<String, String> retrieveFromCache(Collection<String> cacheKeys) {
+        Map<String, String> result = new LinkedHashMap<>();
+        retrieveBytesFromCache(cacheKeys).forEach((key, value) ->
+                result.put(key, value == null ? null : new String(value, StandardCharsets.UTF_8)));
+        return result;
+    }
+
+    public Map<String, byte[]> retrieveBytesFromCache(Collection<String> cacheKeys) {
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        if (cacheKeys.isEmpty()) return result;
+        // Serve what we can from the near cache, fetch the rest with one pipeline per node
+        List<String> keys = new ArrayList<>();
+        Map<String, Long> stamps = new LinkedHashMap<>();
+        for (String key : cacheKeys) {
+            byte[] near = nearCache.get(key);
+            if (near != null) {
+                result.put(key, near);
+            } else {
+                keys.add(key);
+                stamps.put(key, nearCache.stamp(key));
+            }
+        }
+        if (keys.isEmpty()) return result;
+        try {
+            Map<String, byte[]> fetched = perNode(keys, (jedis, nodeKeys) -> {
+                Pipeline pipeline = jedis.pipelined();
+                Map<String, Response<byte[]>> responses = new LinkedHashMap<>();
+                for (String key : nodeKeys) {
+                    GetExParams renew = expiryPolicy.getExParams(key);
+                    byte[] rawKey = SafeEncoder.encode(key);
+                    responses.put(key, renew == null ? pipeline.get(rawKey) : pipeline.getEx(rawKey, renew));
+                }
+                pipeline.sync();
+                Map<String, byte[]> values = new LinkedHashMap<>();
+                responses.forEach((key, response) -> values.put(key, response.get()));
+                return values;
+            });
+            fetched.forEach((key, value) -> {
+                result.put(key, value);
+                cacheLocally(key, value, stamps.get(key));
+            });
+            logger.debug("Retrieved {} keys", keys.size());
+            return result;
         } catch (Exception e) {
             logger.error(e.getMessage());
             throw e;
         }
     }
+
+    public void storeInCache(Map<String, String> entries) {
+        if (entries.isEmpty()) return;
+        try {
+            boolean clustered = shards instanceof ClusterRedisShards;
+            perNode(entries.keySet(), (jedis, nodeKeys) -> {
+                Pipeline pipeline = jedis.pipelined();
+                // Keys without a TTL are written atomically with one MSET per node, or per slot in a cluster
+                Map<Integer, List<String>> unexpiring = new LinkedHashMap<>();
+                for (String key : nodeKeys) {
+                    SetParams expiry = expiryPolicy.setParams(key);
+                    if (expiry == null) {
+                        int group = clustered ? JedisClusterCRC16.getSlot(key) : 0;
+                        unexpiring.computeIfAbsent(group, g -> new ArrayList<>()).add(key);
+                    } else {
+                        pipeline.set(key, entries.get(key), expiry);
+                    }
+                }
+                for (List<String> group : unexpiring.values()) {
+                    String[] keysValues = new String[group.size() * 2];
+                    int i = 0;
+                    for (String key : group) {
+                        keysValues[i++] = key;
+                        keysValues[i++] = entries.get(key);
+                    }
+                    pipeline.mset(keysValues);
+                }
+                pipeline.sync();
+                return Map.of();
+            });
+            logger.debug("Stored {} keys", entries.size());
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            throw e;
+        } finally {
+            entries.keySet().forEach(nearCache::invalidate);
+        }
+    }
+
+    public void removeFromCache(Collection<String> cacheKeys) {
+        if (cacheKeys.isEmpty()) return;
+        try {
+            perNode(cacheKeys, (jedis, nodeKeys) -> {
+                Pipeline pipeline = jedis.pipelined();
+                for (String key : nodeKeys) {
+                    pipeline.del(key);
+                }
+                pipeline.sync();
+                return Map.of();
+            });
+            logger.debug("Removed {} keys", cacheKeys.size());
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            throw e;
+        } finally {
+            cacheKeys.forEach(nearCache::invalidate);
+        }
+    }
+
+    // ================================ Scan ================================
+
+    /**
+     * Walks every string key matching the pattern with SCAN and hands their values to the consumer one page
+     * at a time, so the keyspace is never held in memory. A connection is only held while a page is read,
+     * not while the consumer runs. Keys are reported by the node that owns them, so cluster replicas do not
+     * produce duplicates.
+     *
+     * @param match SCAN MATCH pattern
+     * @param count SCAN COUNT hint, roughly the number of keys per page
+     */
+    public void scan(String match, int count, Consumer<Map<String, byte[]>> page) {
+        ScanParams params = new ScanParams().match(match).count(count);
+        for (String node : shards.getNodes()) {
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                Map<String, byte[]> values = new LinkedHashMap<>();
+                try (Jedis jedis = shards.getResource(node)) {
+                    ScanResult<String> result = jedis.scan(cursor, params, "string");
+                    cursor = result.getCursor();
+                    Pipeline pipeline = jedis.pipelined();
+                    Map<String, Response<byte[]>> responses = new LinkedHashMap<>();
+                    for (String key : result.getResult()) {
+                        if (node.equals(shards.nodeFor(key))) {
+                            responses.put(key, pipeline.get(SafeEncoder.encode(key)));
+                        }
+                    }
+                    pipeline.sync();
+                    // Keys deleted between SCAN and GET come back as null
+                    responses.forEach((key, response) -> {
+                        if (response.get() != null) values.put(key, response.get());
+                    });
+                } catch (Exception e) {
+                    logger.error(e.getMessage());
+                    throw e;
+                }
+                if (!values.isEmpty()) page.accept(values);
+            } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+        }
+    }
+
+    // ================================ Memory ================================
+
+    /**
+     * Counts keys per namespace (see {@link CacheExpiryPolicy}) by walking every node with SCAN, and estimates
+     * each namespace's memory from MEMORY USAGE of its first {@code samplesPerNamespace} keys. SCAN visits
+     * keys in hash order, so these are effectively a random sample. Also reports used memory and the
+     * eviction policy of each node.
+     */
+    public CacheStats stats(int samplesPerNamespace) {
+        CacheStats stats = new CacheStats();
+        ScanParams params = new ScanParams().count(1000);
+        for (String node : shards.getNodes()) {
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                try (Jedis jedis = shards.getResource(node)) {
+                    ScanResult<String> result = jedis.scan(cursor, params);
+                    cursor = result.getCursor();
+                    Pipeline pipeline = jedis.pipelined();
+                    Map<String, Response<Long>> usage = new LinkedHashMap<>();
+                    Map<String, Response<Long>> ttls = new LinkedHashMap<>();
+                    for (String key : result.getResult()) {
+                        if (!node.equals(shards.nodeFor(key))) continue;
+                        NamespaceStats namespace = stats.namespaces.computeIfAbsent(
+                                CacheExpiryPolicy.namespaceOf(key), this::namespaceStats);
+                        namespace.keys++;
+                        if (namespace.sampledKeys < samplesPerNamespace) {
+                            namespace.sampledKeys++;
+                            usage.put(key, pipeline.memoryUsage(key));
+                            ttls.put(key, pipeline.ttl(key));
+                        }
+                    }
+                    pipeline.sync();
+                    usage.forEach((key, response) -> {
+                        NamespaceStats namespace = stats.namespaces.get(CacheExpiryPolicy.namespaceOf(key));
+                        if (response.get() == null) {
+                            // Deleted since the SCAN
+                            namespace.keys--;
+                            namespace.sampledKeys--;
+                            return;
+                        }
+                        namespace.sampledBytes += response.get();
+                        if (ttls.get(key).get() > 0) namespace.sampledWithTtl++;
+                    });
+                } catch (Exception e) {
+                    logger.error(e.getMessage());
+                    throw e;
+                }
+            } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+
+            try (Jedis jedis = shards.getResource(node)) {
+                String info = jedis.info("memory");
+                CacheStats.NodeStats nodeStats = new CacheStats.NodeStats();
+                nodeStats.usedMemory = Long.parseLong(infoField(info, "used_memory", "0"));
+                nodeStats.maxMemory = Long.parseLong(infoField(info, "maxmemory", "0"));
+                nodeStats.maxMemoryPolicy = infoField(info, "maxmemory_policy", null);
+                stats.nodes.put(node, nodeStats);
+            }
+        }
+        stats.namespaces.values().forEach(namespace -> namespace.estimatedBytes = namespace.sampledKeys == 0 ? 0
+                : Math.round((double) namespace.sampledBytes / namespace.sampledKeys * namespace.keys));
+        return stats;
+    }
+
+    private NamespaceStats namespaceStats(String name) {
+        NamespaceStats namespace = new NamespaceStats(name);
+        namespace.ttlSeconds = expiryPolicy.ttlSecondsFor(name);
+        namespace.sliding = expiryPolicy.isSlidingFor(name);
+        return namespace;
+    }
+
+    private static String infoField(String info, String field, String fallback) {
+        for (String line : info.split("\r?\n")) {
+            if (line.startsWith(field + ":")) return line.substring(field.length() + 1).trim();
+        }
+        return fallback;
+    }
+
+    // ================================ Routing ================================
+
+    // Runs a command on the node that owns the key, retrying once if the cluster redirects it
+    private <T> T onNode(String key, Function<Jedis, T> command) {
+        try (Jedis jedis = shards.getResourceForKey(key)) {
+            return command.apply(jedis);
+        } catch (JedisRedirectionException e) {
+            logger.info("Redirected for key {}, refreshing topology", key);
+            shards.refresh();
+            try (Jedis jedis = shards.getResourceForKey(key)) {
+                return command.apply(jedis);
+            }
+        }
+    }
+
+    // Runs a batch command once per node with that node's keys; the per-node parts run in parallel.
+    // Batches only contain idempotent commands, so a redirected batch is simply run again after a refresh.
+    private <T> Map<String, T> perNode(Collection<String> keys, BiFunction<Jedis, List<String>, Map<String, T>> command) {
+        try {
+            return runPerNode(keys, command);
+        } catch (JedisRedirectionException e) {
+            logger.info("Batch redirected, refreshing topology");
+            shards.refresh();
+            return runPerNode(keys, command);
+        }
+    }
+
+    private <T> Map<String, T> runPerNode(Collection<String> keys, BiFunction<Jedis, List<String>, Map<String, T>> command) {
+        Map<String, List<String>> groups = shards.groupByNode(keys);
+        Map<String, T> result = new LinkedHashMap<>();
+        if (groups.size() == 1) {
+            Map.Entry<String, List<String>> group = groups.entrySet().iterator().next();
+            try (Jedis jedis = shards.getResource(group.getKey())) {
+                result.putAll(command.apply(jedis, group.getValue()));
+            }
+            return result;
+        }
+        List<CompletableFuture<Map<String, T>>> parts = new ArrayList<>();
+        groups.forEach((node, nodeKeys) -> parts.add(CompletableFuture.supplyAsync(() -> {
+            try (Jedis jedis = shards.getResource(node)) {
+                return command.apply(jedis, nodeKeys);
+            }
+        }, shardExecutor)));
+        try {
+            parts.forEach(part -> result.putAll(part.join()));
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
+        return result;
+    }
+
+    private static String sha1Hex(String script) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(script.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
@@ -0,0 +1,70 @@
+package uk.ac.ed.acp.cw2.service;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.ConnectionPool;
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisClusterOperationException;
+import redis.clients.jedis.providers.ClusterConnectionProvider;
+import redis.clients.jedis.util.JedisClusterCRC16;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Redis Cluster. Keys are routed to the master that currently serves their hash slot, using the slot map
+ * the Jedis cluster provider discovers from the seed nodes and keeps one pool per node for.
+ */
+public class ClusterRedisShards implements RedisShards {
+    private final ClusterConnectionProvider provider;
+
+    public ClusterRedisShards(List<String> seedNodes, GenericObjectPoolConfig<Connection> poolConfig) {
+        Set<HostAndPort> seeds = seedNodes.stream().map(HostAndPort::from).collect(Collectors.toSet());
+        this.provider = new ClusterConnectionProvider(seeds, DefaultJedisClientConfig.builder().build(), poolConfig);
+    }
+
+    @Override
+    public String nodeFor(String key) {
+        int slot = JedisClusterCRC16.getSlot(key);
+        HostAndPort node = provider.getNode(slot);
+        if (node == null) {
+            provider.renewSlotCache();
+            node = provider.getNode(slot);
+        }
+        if (node == null) {
+            throw new JedisClusterOperationException("No redis node serves slot " + slot);
+        }
+        return node.toString();
+    }
+
+    @Override
+    public Jedis getResource(String node) {
+        return new Jedis(provider.getConnection(HostAndPort.from(node)));
+    }
+
+    @Override
+    public List<String> getNodes() {
+        return new ArrayList<>(provider.getNodes().keySet());
+    }
+
+    @Override
+    public void refresh() {
+        provider.renewSlotCache();
+    }
+
+    @Override
+    public int getNumActive() {return provider.getNodes().values().stream().mapToInt(ConnectionPool::getNumActive).sum();}
+    @Override
+    public int getNumIdle() {return provider.getNodes().values().stream().mapToInt(ConnectionPool::getNumIdle).sum();}
+    @Override
+    public int getNumWaiters() {return provider.getNodes().values().stream().mapToInt(ConnectionPool::getNumWaiters).sum();}
+
+    @Override
+    public void close() {
+        provider.close();
+    }
+}
@@ -0,0 +1,112 @@
+package uk.ac.ed.acp.cw2.service;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.ReturnListener;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Publisher confirms for one batch of messages published on a channel in confirm mode. Each message is tracked
+ * by its publish sequence number until the broker acks or nacks it; a multiple ack or nack settles every
+ * outstanding number up to and including the one given. Confirms arrive on the connection's thread, so the
+ * publisher never waits between messages and only waits once, for the whole batch, in {@link #awaitSettled}.
+ * <p>
+ * Also listens for the channel shutting down, which ends the wait as nothing more will be confirmed, and for
+ * mandatory messages the broker returned as unroutable, e.g. because their queue no longer exists. The broker
+ * still acks those, so they are kept apart and handed back with the unconfirmed ones.
+ */
+public class ConfirmTracker implements ConfirmListener, ReturnListener, ShutdownListener {
+    private final ConcurrentSkipListMap<Long, String> outstanding = new ConcurrentSkipListMap<>();
+    private final List<String> nacked = new ArrayList<>();
+    private final List<String> returned = new ArrayList<>();
+    private boolean shutdown = false;
+
+    /**
+     * Starts tracking a message; must be called before it is published, as the confirm can arrive first.
+     */
+    public void track(long sequenceNumber, String message) {
+        outstanding.put(sequenceNumber, message);
+    }
+
+    @Override
+    public void handleAck(long deliveryTag, boolean multiple) {
+        settle(deliveryTag, multiple, false);
+    }
+
+    @Override
+    public void handleNack(long deliveryTag, boolean multiple) {
+        settle(deliveryTag, multiple, true);
+    }
+
+    @Override
+    public synchronized void handleReturn(int replyCode, String replyText, String exchange, String routingKey,
+                                          AMQP.BasicProperties properties, byte[] body) {
+        // Always arrives before the ack for the same message
+        returned.add(new String(body));
+    }
+
+    @Override
+    public synchronized void shutdownCompleted(ShutdownSignalException cause) {
+        shutdown = true;
+        notifyAll();
+    }
+
+    private synchronized void settle(long deliveryTag, boolean multiple, boolean nack) {
+        if (multiple) {
+            Iterator<Map.Entry<Long, String>> settled = outstanding.headMap(deliveryTag, true).entrySet().iterator();
+            while (settled.hasNext()) {
+                String message = settled.next().getValue();
+                if (nack) nacked.add(message);
+                settled.remove();
+            }
+        } else {
+            String message = outstanding.remove(deliveryTag);
+            if (nack && message != null) nacked.add(message);
+        }
+        if (outstanding.isEmpty()) notifyAll();
+    }
+
+    /**
+     * Waits until every tracked message is acked or nacked, the channel shuts down, or the timeout passes.
+     *
+     * @return true if no message is left unconfirmed
+     */
+    public synchronized boolean awaitSettled(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!outstanding.isEmpty() && !shutdown) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return false;
+            wait(remaining);
+        }
+        return outstanding.isEmpty();
+    }
+
+    /**
+     * @return messages the broker nacked or returned, and those it never confirmed, in publish order within each
+     */
+    public synchronized List<String> unconfirmed() {
+        List<String> messages = new ArrayList<>(nacked);
+        messages.addAll(returned);
+        messages.addAll(outstanding.values());
+        return messages;
+    }
+
+    public synchronized int getNacked() {
+        return nacked.size();
+    }
+
+    public synchronized int getReturned() {
+        return returned.size();
+    }
+
+    public int getOutstanding() {
+        return outstanding.size();
+    }
+}
@@ -0,0 +1,264 @@
+package uk.ac.ed.acp.cw2.service;
+
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Pool of long-lived Kafka consumers, one per topic and consumer group. A consumer stays subscribed between
+ * checkouts, so reads do not pay for a group rebalance each time, and it is only ever used by one thread at
+ * a time, as KafkaConsumer is not thread safe. Reads of different topics run in parallel; a read of a topic
+ * whose consumer is checked out waits for it to be returned.
+ * <p>
+ * The pool holds at most {@code maxSize} consumers. When it is full, the least recently used idle consumer
+ * is closed to make room. Consumers idle for longer than {@code idleTimeoutMs} are closed in the background.
+ * <p>
+ * A pool created with {@code subscribe = false} hands out consumers that are not subscribed to anything; the
+ * caller assigns partitions itself, and the assignment and positions carry over to the next checkout. Such a
+ * pool can also hand out one consumer per partition, for readers that poll a topic's partitions in parallel.
+ * <p>
+ * Record values are handed over as raw bytes, whatever deserializer the properties name, so readers can decode
+ * them straight into their own types.
+ */
+public class KafkaConsumerPool implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(KafkaConsumerPool.class);
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(5);
+
+    private final Properties properties;
+    private final int maxSize;
+    private final long idleTimeoutMs;
+    private final long maxWaitMs;
+    private final boolean subscribe;
+    private final Map<Key, PooledConsumer> consumers = new HashMap<>();
+    private final ScheduledExecutorService evictor;
+    private boolean closed = false;
+
+    // Partition of a per-partition consumer; consumers for the whole topic have none
+    public static final int ANY_PARTITION = -1;
+
+    public record Key(String topic, int partition, String groupId) {}
+
+    private static class PooledConsumer {
+        final KafkaConsumer<String, byte[]> consumer;
+        boolean inUse = false;
+        long lastReturned = System.currentTimeMillis();
+
+        PooledConsumer(KafkaConsumer<String, byte[]> consumer) {
+            this.consumer = consumer;
+        }
+    }
+
+    /**
+     * A checked out consumer. Closing the lease hands the consumer back to the pool.
+     */
+    public class Lease implements AutoCloseable {
+        private final Key key;
+        private final PooledConsumer pooled;
+        private boolean invalid = false;
+        private boolean returned = false;
+
+        private Lease(Key key, PooledConsumer pooled) {
+            this.key = key;
+            this.pooled = pooled;
+        }
+
+        public KafkaConsumer<String, byte[]> consumer() {
+            return pooled.consumer;
+        }
+
+        public Key key() {
+            return key;
+        }
+
+        /**
+         * Marks the consumer as unusable; it is closed instead of returned to the pool.
+         */
+        public void invalidate() {
+            invalid = true;
+        }
+
+        @Override
+        public void close() {
+            if (returned) return;
+            returned = true;
+            release(this);
+        }
+    }
+
+    /**
+     * @param properties    consumer configuration shared by every consumer; group.id is set per consumer
+     * @param maxSize       maximum number of consumers, in use or idle
+     * @param idleTimeoutMs idle consumers are closed after this long
+     * @param maxWaitMs     how long a checkout waits for a busy consumer or a free slot
+     */
+    public KafkaConsumerPool(Properties properties, int maxSize, long idleTimeoutMs, long maxWaitMs) {
+        this(properties, maxSize, idleTimeoutMs, maxWaitMs, true);
+    }
+
+    /**
+     * @param subscribe whether consumers are subscribed to their topic, or left for the caller to assign
+     */
+    public KafkaConsumerPool(Properties properties, int maxSize, long idleTimeoutMs, long maxWaitMs, boolean subscribe) {
+        this.properties = properties;
+        this.subscribe = subscribe;
+        this.maxSize = maxSize;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.maxWaitMs = maxWaitMs;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "kafka-consumer-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, idleTimeoutMs / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks out the consumer for a topic and group, creating (and subscribing) it if needed.
+     *
+     * @throws TimeoutException if the consumer stays busy, or the pool stays full, for longer than maxWaitMs
+     */
+    public Lease checkout(String topic, String groupId) throws InterruptedException, TimeoutException {
+        return checkout(new Key(topic, ANY_PARTITION, groupId));
+    }
+
+    /**
+     * Checks out the consumer for a single partition and group, creating it if needed. The caller assigns the
+     * partition; the consumer is never subscribed.
+     *
+     * @throws TimeoutException if the consumer stays busy, or the pool stays full, for longer than maxWaitMs
+     */
+    public Lease checkout(TopicPartition partition, String groupId) throws InterruptedException, TimeoutException {
+        return checkout(new Key(partition.topic(), partition.partition(), groupId));
+    }
+
+    private synchronized Lease checkout(Key key) throws InterruptedException, TimeoutException {
+        String topic = key.topic();
+        String groupId = key.groupId();
+        long deadline = System.currentTimeMillis() + maxWaitMs;
+        while (true) {
+            if (closed) throw new IllegalStateException("Consumer pool is closed");
+            PooledConsumer pooled = consumers.get(key);
+            if (pooled != null && !pooled.inUse) {
+                pooled.inUse = true;
+                return new Lease(key, pooled);
+            }
+            if (pooled == null && (consumers.size() < maxSize || evictLeastRecentlyUsed())) {
+                pooled = new PooledConsumer(create(key));
+                pooled.inUse = true;
+                consumers.put(key, pooled);
+                logger.info("Created consumer for topic {} group {} ({}/{})", topic, groupId, consumers.size(), maxSize);
+                return new Lease(key, pooled);
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new TimeoutException("No consumer available for topic " + topic + " within " + maxWaitMs + "ms");
+            }
+            wait(remaining);
+        }
+    }
+
+    private synchronized void release(Lease lease) {
+        if (lease.invalid || closed) {
+            consumers.remove(lease.key, lease.pooled);
+            closeAsync(lease.key, lease.pooled);
+        } else {
+            lease.pooled.inUse = false;
+            lease.pooled.lastReturned = System.currentTimeMillis();
+        }
+        notifyAll();
+    }
+
+    private KafkaConsumer<String, byte[]> create(Key key) {
+        Properties consumerProperties = new Properties();
+        consumerProperties.putAll(properties);
+        consumerProperties.put("group.id", key.groupId());
+        consumerProperties.put("value.deserializer", ByteArrayDeserializer.class.getName());
+        KafkaConsumer<String, byte[]> consumer = new KafkaConsumer<>(consumerProperties);
+        if (subscribe && key.partition() == ANY_PARTITION) consumer.subscribe(Collections.singletonList(key.topic()));
+        return consumer;
+    }
+
+    // Closes the idle consumer returned longest ago; false if every consumer is in use
+    private boolean evictLeastRecentlyUsed() {
+        Map.Entry<Key, PooledConsumer> oldest = null;
+        for (Map.Entry<Key, PooledConsumer> entry : consumers.entrySet()) {
+            if (!entry.getValue().inUse && (oldest == null || entry.getValue().lastReturned < oldest.getValue().lastReturned)) {
+                oldest = entry;
+            }
+        }
+        if (oldest == null) return false;
+        consumers.remove(oldest.getKey());
+        closeAsync(oldest.getKey(), oldest.getValue());
+        return true;
+    }
+
+    private synchronized void evictIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Key, PooledConsumer>> iterator = consumers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, PooledConsumer> entry = iterator.next();
+            if (!entry.getValue().inUse && now - entry.getValue().lastReturned > idleTimeoutMs) {
+                iterator.remove();
+                closeAsync(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    // Closing leaves the group, which can take a while, so it is done off the caller's thread
+    private void closeAsync(Key key, PooledConsumer pooled) {
+        Runnable close = () -> {
+            try {
+                pooled.consumer.close(CLOSE_TIMEOUT);
+                logger.info("Closed consumer for topic {} group {}", key.topic(), key.groupId());
+            } catch (Exception e) {
+                logger.error("Error closing consumer for topic {}: {}", key.topic(), e.getMessage());
+            }
+        };
+        if (evictor.isShutdown()) {
+            close.run();
+        } else {
+            evictor.execute(close);
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized int getSize() {
+        return consumers.size();
+    }
+
+    public synchronized int getInUse() {
+        return (int) consumers.values().stream().filter(pooled -> pooled.inUse).count();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            evictor.shutdown();
+            // Consumers still checked out are closed when they are returned
+            consumers.entrySet().removeIf(entry -> {
+                if (entry.getValue().inUse) return false;
+                closeAsync(entry.getKey(), entry.getValue());
+                return true;
+            });
+            notifyAll();
+        }
+    }
+}
@@ -1,36 +1,96 @@
 package uk.ac.ed.acp.cw2.service;
 
 import java.util.*;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PreDestroy;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 import uk.ac.ed.acp.cw2.data.RuntimeEnvironment;
+import uk.ac.ed.acp.cw2.Utilities.MessageDecoder;
 import uk.ac.ed.acp.cw2.Utilities.Parser;
+import uk.ac.ed.acp.cw2.Utilities.ProducerProfiles;
+import uk.ac.ed.acp.cw2.model.ProducerProfile;
+import uk.ac.ed.acp.cw2.model.PublishResult;
 
 
 @Service
 public class KafkaService {
     private static final Logger logger = LoggerFactory.getLogger(KafkaService.class);
+    // How long a count-only read waits for the group to assign partitions before it can seek
+    private static final long ASSIGNMENT_WAIT_MS = 10000;
     private final String uid = "s2093547";
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private KafkaConsumer<String, String> consumer;
-    private KafkaProducer<String, String> producer;
+    // Group used for reads that do not name one; KAFKA_GROUP_ID, or unique per service instance if unset
+    private final String defaultGroupId;
+    private final KafkaConsumerPool consumerPool;
+    // Consumers for reads that assign partitions themselves, and the partitions they assign
+    private final KafkaConsumerPool assignedPool;
+    private final PartitionMetadataCache partitionMetadata;
+    private final Map<ReadKey, ActiveRead> activeReads = new ConcurrentHashMap<>();
+    private final RuntimeEnvironment environment;
+    private final ProducerProfiles producerProfiles;
+    // One producer per profile, created on first use
+    private final Map<String, KafkaProducer<String, String>> producers = new ConcurrentHashMap<>();
+    private final ExecutorService partitionReaders = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "kafka-partition-reader");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public KafkaService(RuntimeEnvironment environment) {
         long startTime = System.currentTimeMillis();
         logger.info("KafkaService constructor took {} ms", System.currentTimeMillis() - startTime);
-        this.producer = new KafkaProducer<>(getKafkaProperties(environment));
-        this.consumer = new KafkaConsumer<>(getKafkaProperties(environment));
+        this.environment = environment;
+        this.defaultGroupId = environment.getKafkaGroupId() != null ? environment.getKafkaGroupId() : UUID.randomUUID().toString();
+        this.producerProfiles = new ProducerProfiles(environment.getKafkaProducerProfiles(), environment.getKafkaTopicProfiles());
+        producer(ProducerProfiles.DEFAULT_PROFILE);
+        // Reads commit what they returned themselves, so auto commit must not commit what they skipped
+        Properties consumerProperties = getKafkaProperties(environment);
+        consumerProperties.put("enable.auto.commit", "false");
+        // Fixed per consumer; records polled past a read's count are seeked back, so smaller batches waste less
+        consumerProperties.put("max.poll.records", String.valueOf(environment.getKafkaMaxPollRecords()));
+        this.consumerPool = new KafkaConsumerPool(consumerProperties,
+                environment.getKafkaConsumerPoolMaxSize(),
+                environment.getKafkaConsumerIdleTimeoutMs(),
+                environment.getKafkaConsumerPoolMaxWaitMs());
+        this.assignedPool = new KafkaConsumerPool(consumerProperties,
+                environment.getKafkaConsumerPoolMaxSize(),
+                environment.getKafkaConsumerIdleTimeoutMs(),
+                environment.getKafkaConsumerPoolMaxWaitMs(), false);
+        this.partitionMetadata = new PartitionMetadataCache(environment.getKafkaMetadataRefreshMs());
+    }
+
+    @PreDestroy
+    public void close() {
+        consumerPool.close();
+        assignedPool.close();
+        partitionReaders.shutdownNow();
+        producers.values().forEach(KafkaProducer::close);
     }
 
     /**
@@ -40,7 +100,7 @@ public class KafkaService {
      *                     such as Kafka bootstrap servers.
      * @return a Properties object containing configuration properties for Kafka operations.
      */
-    private Properties getKafkaProperties(RuntimeEnvironment environment) {
+    public static Properties getKafkaProperties(RuntimeEnvironment environment) {
         Properties kafkaProps = new Properties();
         kafkaProps.put("bootstrap.servers", environment.getKafkaBootstrapServers());
         kafkaProps.put("acks", "all");
@@ -50,7 +110,6 @@ public class KafkaService {
         kafkaProps.put("value.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
         kafkaProps.setProperty("enable.auto.commit", "true");
         kafkaProps.put("acks", "all");
-        kafkaProps.put("group.id", UUID.randomUUID().toString());
         kafkaProps.setProperty("auto.offset.reset", "earliest");
         kafkaProps.setProperty("enable.auto.commit", "true");
 
@@ -66,63 +125,355 @@ public class KafkaService {
         return kafkaProps;
     }
 
+    // Idempotence gives every record a sequence number per partition, so the client's own retries never write
+    // a record twice; it requires acks=all and at most 5 requests in flight. A record sent again by the caller
+    // is a new record and gets no such protection
+    public static Properties getProducerProperties(RuntimeEnvironment environment, ProducerProfile profile) {
+        Properties producerProps = getKafkaProperties(environment);
+        producerProps.put("enable.idempotence", "true");
+        profile.applyTo(producerProps);
+        return producerProps;
+    }
+
+    private KafkaProducer<String, String> producer(String profileName) {
+        ProducerProfile profile = producerProfiles.get(profileName);
+        return producers.computeIfAbsent(profile.name, name -> {
+            logger.info("Creating producer for profile {}", name);
+            return new KafkaProducer<>(getProducerProperties(environment, profile));
+        });
+    }
+
+    private String profileFor(String topic) {
+        return producerProfiles.forTopic(topic).name;
+    }
+
     // ================================ Receive ================================
 
+    /**
+     * Where a read starts. {@code COMMITTED} carries on from the group's committed offsets, or from the
+     * earliest offset for a group that has none. The others move every partition of the topic before the
+     * first poll: to an offset, to the first record at or after a timestamp (epoch ms), or back by the last
+     * {@code n} records. Positions are clamped to the records the partition still has.
+     */
+    public record StartPosition(Mode mode, long value) {
+        public enum Mode { COMMITTED, OFFSET, TIMESTAMP, LAST }
+
+        public static final StartPosition COMMITTED = new StartPosition(Mode.COMMITTED, 0);
+
+        public static StartPosition offset(long offset) { return new StartPosition(Mode.OFFSET, offset); }
+        public static StartPosition timestamp(long epochMs) { return new StartPosition(Mode.TIMESTAMP, epochMs); }
+        public static StartPosition last(long count) { return new StartPosition(Mode.LAST, count); }
+    }
+
+    /**
+     * How a read gets its partitions. {@code SUBSCRIBE} joins the consumer group and is given partitions by
+     * it, sharing the topic with other members. {@code ASSIGN} takes every partition of the topic directly,
+     * so there is no group join or rebalance and a short read costs little more than the fetch; the group is
+     * only used to store offsets, and defaults to one separate from subscribed reads.
+     */
+    public enum ReadMode { SUBSCRIBE, ASSIGN }
+
+    // A pooled consumer serves one read at a time, so topic, group and mode identify the read using it
+    private record ReadKey(String topic, String groupId, ReadMode mode) {}
+
+    static class ActiveRead {
+        final org.apache.kafka.clients.consumer.Consumer<?, ?> consumer;
+        volatile boolean cancelled = false;
+        volatile boolean wokenUp = false;
+        private boolean finished = false;
+
+        ActiveRead(org.apache.kafka.clients.consumer.Consumer<?, ?> consumer) {
+            this.consumer = consumer;
+        }
+
+        synchronized boolean cancel() {
+            if (finished || cancelled) return false;
+            cancelled = true;
+            consumer.wakeup();
+            return true;
+        }
+
+        // Marks the read finished; true if a wakeup was sent that the consumer never saw
+        synchronized boolean finish() {
+            finished = true;
+            return cancelled && !wokenUp;
+        }
+    }
+
     public List<String> receive(String readTopic, int timeoutInMsec, int messageCount, List<String> requiredFields) {
+        return receive(readTopic, timeoutInMsec, messageCount, requiredFields, null, StartPosition.COMMITTED, ReadMode.SUBSCRIBE);
+    }
+
+    public List<String> receive(String readTopic, int timeoutInMsec, int messageCount, List<String> requiredFields,
+                                String groupId, StartPosition start, ReadMode mode) {
+        List<String> messages = new ArrayList<>();
+        return stream(readTopic, timeoutInMsec, messageCount, 0, MessageDecoder.requiring(requiredFields), groupId, start, mode, messages::add) < 0 ? null : messages;
+    }
+
+    public int stream(String readTopic, int timeoutInMsec, int messageCount, List<String> requiredFields, Consumer<String> sink) {
+        return stream(readTopic, timeoutInMsec, messageCount, 0, MessageDecoder.requiring(requiredFields), null, StartPosition.COMMITTED, ReadMode.SUBSCRIBE, sink);
+    }
+
+    /**
+     * Reads like {@link #receive} but hands each message the decoder accepts to the sink as soon as it is polled instead of
+     * collecting them. The sink runs on the polling thread, so a sink that blocks (a slow HTTP client) holds
+     * back the next poll and nothing more is fetched than the consumer already buffered. If the sink throws,
+     * the read stops, the message it failed on is left for the next read, and the exception is rethrown.
+     * <p>
+     * Reads are made as the given consumer group (the service's own when null), and only the offsets of
+     * records the read went through are committed: records polled past the count are left for the next read
+     * of the group rather than committed unseen. In {@code ASSIGN} mode the default group is the service's
+     * own with an "-assigned" suffix.
+     * <p>
+     * Each poll blocks for whatever is left of the read, returning as soon as records arrive, so an idle read
+     * sleeps in the client rather than spinning. A read can be stopped early with {@link #cancel}.
+     *
+     * @param maxWaitInMsec for count-only reads, stop after this long even if the count was not reached;
+     *                      0 waits for the count
+     * @return number of messages handed to the sink, or -1 if the read could not be started
+     */
+    public <T> int stream(String readTopic, int timeoutInMsec, int messageCount, long maxWaitInMsec, MessageDecoder<T> decoder,
+                          String groupId, StartPosition start, ReadMode mode, Consumer<? super T> sink) {
         // Check inputs
         boolean checkCount = (messageCount != 0);
         boolean checkTime = (timeoutInMsec != 0);
-        boolean ignoreFields = (requiredFields == null);
+        boolean ignoreFields = (decoder == MessageDecoder.RAW);
         String prefix = !ignoreFields ? "[With Validation]" : "";
         Integer runType = (checkCount ? 1 : 0) + (checkTime ? 2 : 0); // 0 = neither, 1 = count, 2 = time, 3 = both
         switch (runType){
-            case 0: logger.error(prefix + "Requesting read with no message count or timeout"); return null;
-            case 1: logger.info(prefix + "Reading topic {}: count={}", readTopic, messageCount); break;
+            case 0: logger.error(prefix + "Requesting read with no message count or timeout"); return -1;
+            case 1: logger.info(prefix + "Reading topic {}: count={}, maxWait={}", readTopic, messageCount, maxWaitInMsec); break;
             case 2: logger.info(prefix + "Reading topic {}: timeOut={}", readTopic, timeoutInMsec); break;
             case 3: logger.info(prefix + "Reading topic {}: timeOut={}, count={}", readTopic, timeoutInMsec, messageCount); break;
         }
         // Setup
-        List<String> messages = new ArrayList<>();
+        boolean assign = (mode == ReadMode.ASSIGN);
+        String group = groupFor(groupId, mode);
+        int delivered;
         long startTime = System.currentTimeMillis();
-        // Subscribe to topic
+        // Count-only reads without a max wait have no deadline
+        long deadline = checkTime ? startTime + timeoutInMsec
+                : maxWaitInMsec > 0 ? startTime + maxWaitInMsec : Long.MAX_VALUE;
+        // Check out the topic's consumer - already subscribed or assigned if it was used before
+        KafkaConsumerPool.Lease lease;
         try {
-            consumer.unsubscribe();
+            lease = (assign ? assignedPool : consumerPool).checkout(readTopic, group);
         } catch (Exception e) {
-            logger.error("Error unsubscribing from topics - may cause incorrect offset", e.getMessage());
-        } finally {
+            logger.error("Error getting consumer for topic {}: {}", readTopic, e.getMessage());
+            return -1;
+        }
+        ReadKey readKey = new ReadKey(readTopic, group, mode);
+        try (lease) {
+            KafkaConsumer<String, byte[]> consumer = lease.consumer();
+            ActiveRead active = new ActiveRead(consumer);
+            activeReads.put(readKey, active);
             try {
-                consumer.subscribe(Collections.singletonList(readTopic));
-            } catch (Exception e) {
-                logger.error("Error subscribing to topic: {}", e.getMessage());
-                return null;
+                if (assign && !assignPartitions(consumer, readTopic)) {
+                    return -1;
+                }
+                delivered = read(consumer, active, start, deadline, checkTime, messageCount, decoder, sink, readTopic, group);
+            } finally {
+                activeReads.remove(readKey, active);
+                if (active.finish()) {
+                    // A wakeup that arrived after the last poll would interrupt the next read of this consumer
+                    lease.invalidate();
+                }
             }
+        } catch (SinkFailure e) {
+            // The consumer is fine and its progress committed, so the lease goes back to the pool as it is
+            logger.error("Stopped reading topic {} after {} messages: {}", readTopic, e.delivered, e.getCause().getMessage());
+            throw (RuntimeException) e.getCause();
+        } catch (RuntimeException e) {
+            lease.invalidate();
+            // The partitions may be what went wrong, so the next assigned read looks them up again
+            if (assign) partitionMetadata.invalidate(readTopic);
+            throw e;
         }
-        // Receive messages
-        while (checkCount || 
-                (checkTime && (System.currentTimeMillis() - startTime < timeoutInMsec))) {
+        // Output
+        switch (runType){
+            case 1: logger.info(prefix + "Received {}/{} messages in {}ms", delivered, messageCount, System.currentTimeMillis() - startTime); break;
+            case 2: logger.info(prefix + "Received {} messages in {}/{}ms", delivered, System.currentTimeMillis() - startTime, timeoutInMsec); break;
+            case 3: logger.info(prefix + "Received {}/{} messages in {}/{}ms", delivered, messageCount, System.currentTimeMillis() - startTime, timeoutInMsec); break;
+        }
+        return delivered;
+    }
+
+    // Carries an exception thrown by a read's sink past the consumer's error handling
+    private static class SinkFailure extends RuntimeException {
+        final int delivered;
+
+        SinkFailure(RuntimeException cause, int delivered) {
+            super(cause);
+            this.delivered = delivered;
+        }
+    }
+
+    /**
+     * Polls one consumer that already holds its partitions until the count is reached, the deadline passes or
+     * the read is cancelled, handing each decoded message to the sink, then commits the offsets it went
+     * through. If the sink throws, what came before is still committed and the exception is rethrown wrapped
+     * in a {@link SinkFailure}.
+     *
+     * @param messageCount messages to deliver before stopping; 0 for time-only reads
+     * @return number of messages handed to the sink
+     */
+    static <T> int read(org.apache.kafka.clients.consumer.Consumer<String, byte[]> consumer, ActiveRead active, StartPosition start,
+                        long deadline, boolean checkTime, int messageCount, MessageDecoder<T> decoder,
+                        Consumer<? super T> sink, String readTopic, String group) {
+        boolean checkCount = (messageCount != 0);
+        int delivered = 0;
+        RuntimeException sinkError = null;
+        if (start.mode() != StartPosition.Mode.COMMITTED) {
+            try {
+                seekToStart(consumer, start, Math.min(deadline, System.currentTimeMillis() + ASSIGNMENT_WAIT_MS));
+            } catch (WakeupException e) {
+                active.wokenUp = true;
+            }
+        }
+        // Next offset per partition after the last record this read went through; what gets committed
+        Map<TopicPartition, OffsetAndMetadata> consumed = new HashMap<>();
+        boolean done = false;
+        // Receive messages - each poll blocks until records arrive or the deadline passes
+        long remaining;
+        while ((checkCount || checkTime) && !active.cancelled
+                && (remaining = deadline - System.currentTimeMillis()) > 0) {
             try{
-                ConsumerRecords<String, String> records = consumer.poll(Duration.ofMillis(10));
-                for (ConsumerRecord<String, String> record : records) {
-                    String message = record.value();
-                    if (ignoreFields || Parser.isValidMessage(message, requiredFields)) {
-                        messages.add(message);
-                        if (checkCount && checkCount(messages.size(), messageCount)){
-                            checkCount = false; break;
+                ConsumerRecords<String, byte[]> records = consumer.poll(Duration.ofMillis(remaining));
+                // First offset per partition that was polled but not returned, so the next read starts there
+                Map<TopicPartition, Long> unreturned = new HashMap<>();
+                for (ConsumerRecord<String, byte[]> record : records) {
+                    if (done) {
+                        unreturned.putIfAbsent(new TopicPartition(record.topic(), record.partition()), record.offset());
+                        continue;
+                    }
+                    TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+                    T message = decode(decoder, record.value());
+                    if (message != null) {
+                        try {
+                            sink.accept(message);
+                        } catch (RuntimeException e) {
+                            unreturned.put(partition, record.offset());
+                            sinkError = e;
+                            checkCount = false; checkTime = false; done = true;
+                            continue;
+                        }
+                        delivered++;
+                        if (checkCount && checkCount(delivered, messageCount)){
+                            checkCount = false; done = !checkTime;
                         }
                     }
+                    // Records failing validation are consumed too; they would fail it again next time
+                    consumed.put(partition, new OffsetAndMetadata(record.offset() + 1));
                 }
+                unreturned.forEach(consumer::seek);
+            } catch (WakeupException e) {
+                active.wokenUp = true;
             } catch (Exception e) {
                 logger.error("Error polling messages from Kafka topic", e);
-            } 
+            }
         }
-        // Output
-        switch (runType){
-            case 1: logger.info(prefix + "Received {}/{} messages in {}ms", messages.size(), messageCount, System.currentTimeMillis() - startTime); break;
-            case 2: logger.info(prefix + "Received {} messages in {}/{}ms", messages.size(), System.currentTimeMillis() - startTime, timeoutInMsec); break;
-            case 3: logger.info(prefix + "Received {}/{} messages in {}/{}ms", messages.size(), messageCount, System.currentTimeMillis() - startTime, timeoutInMsec); break;
+        if (active.cancelled) logger.info("Read of topic {} cancelled after {} messages", readTopic, delivered);
+        if (!consumed.isEmpty()) commit(consumer, consumed, active, readTopic, group);
+        if (sinkError != null) throw new SinkFailure(sinkError, delivered);
+        return delivered;
+    }
+
+    // A decoder that throws rejects the message rather than failing the read
+    private static <T> T decode(MessageDecoder<T> decoder, byte[] message) {
+        try {
+            return decoder.decode(message);
+        } catch (RuntimeException e) {
+            logger.error("Error decoding message of {} bytes: {}", message == null ? 0 : message.length, e.getMessage());
+            return null;
         }
-        // Return received messages
-        return messages;
+    }
+
+    private static void commit(org.apache.kafka.clients.consumer.Consumer<String, byte[]> consumer, Map<TopicPartition, OffsetAndMetadata> offsets,
+                               ActiveRead active, String readTopic, String group) {
+        try {
+            try {
+                consumer.commitSync(offsets);
+            } catch (WakeupException e) {
+                // A cancel that arrived after polling finished; it only interrupts one call
+                active.wokenUp = true;
+                consumer.commitSync(offsets);
+            }
+        } catch (KafkaException e) {
+            // A rebalance during the read; the group's new owner re-reads from the last commit
+            logger.error("Error committing offsets for topic {} group {}: {}", readTopic, group, e.getMessage());
+        }
+    }
+
+    /**
+     * Cancels the read in progress on a topic for a group and mode, waking its consumer out of the poll. The
+     * read returns what it has so far and commits it.
+     *
+     * @return false if no such read is in progress
+     */
+    public boolean cancel(String readTopic, String groupId, ReadMode mode) {
+        ActiveRead active = activeReads.get(new ReadKey(readTopic, groupFor(groupId, mode), mode));
+        return active != null && active.cancel();
+    }
+
+    private String groupFor(String groupId, ReadMode mode) {
+        if (groupId != null) return groupId;
+        return mode == ReadMode.ASSIGN ? defaultGroupId + "-assigned" : defaultGroupId;
+    }
+
+    // Assigns every partition of the topic from cached metadata; a consumer that already has them keeps its positions
+    private boolean assignPartitions(KafkaConsumer<String, byte[]> consumer, String topic) {
+        List<TopicPartition> partitions = partitionMetadata.partitions(topic, name -> topicPartitions(consumer, name));
+        if (partitions.isEmpty()) {
+            logger.error("Topic {} has no partitions to assign", topic);
+            return false;
+        }
+        if (!consumer.assignment().equals(new HashSet<>(partitions))) {
+            consumer.assign(partitions);
+        }
+        return true;
+    }
+
+    private static List<TopicPartition> topicPartitions(KafkaConsumer<?, ?> consumer, String topic) {
+        List<PartitionInfo> partitions = consumer.partitionsFor(topic);
+        if (partitions == null) return List.of();
+        return partitions.stream().map(info -> new TopicPartition(info.topic(), info.partition())).toList();
+    }
+
+    // A subscribed consumer only learns its partitions by polling, so it polls until the group has assigned them;
+    // anything fetched meanwhile is discarded by the seek
+    private static void seekToStart(org.apache.kafka.clients.consumer.Consumer<String, byte[]> consumer, StartPosition start, long deadline) {
+        Set<TopicPartition> partitions = consumer.assignment();
+        while (partitions.isEmpty() && System.currentTimeMillis() < deadline) {
+            consumer.poll(Duration.ofMillis(100));
+            partitions = consumer.assignment();
+        }
+        if (partitions.isEmpty()) {
+            logger.error("No partitions assigned in time to seek to {}", start);
+            return;
+        }
+        Map<TopicPartition, Long> beginning = consumer.beginningOffsets(partitions);
+        Map<TopicPartition, Long> end = consumer.endOffsets(partitions);
+        Map<TopicPartition, Long> target = new HashMap<>();
+        switch (start.mode()) {
+            case OFFSET:
+                partitions.forEach(partition -> target.put(partition, start.value()));
+                break;
+            case LAST:
+                partitions.forEach(partition -> target.put(partition, end.get(partition) - start.value()));
+                break;
+            case TIMESTAMP:
+                Map<TopicPartition, Long> query = new HashMap<>();
+                partitions.forEach(partition -> query.put(partition, start.value()));
+                // No record at or after the timestamp means the read starts at the end
+                consumer.offsetsForTimes(query).forEach((partition, found) ->
+                        target.put(partition, found != null ? found.offset() : end.get(partition)));
+                break;
+            default:
+                break;
+        }
+        target.forEach((partition, offset) ->
+                consumer.seek(partition, Math.max(beginning.get(partition), Math.min(end.get(partition), offset))));
+        logger.info("Moved {} partitions to {}", target.size(), start);
     }
 
     // Public methods
@@ -130,26 +481,285 @@ public class KafkaService {
     public List<String> receiveTimeout(String readTopic, int timeoutInMsec, List<String> requiredFields){return receive(readTopic, timeoutInMsec, 0, requiredFields); }
     public List<String> receiveCount(String readTopic, int messageCount){return receive(readTopic, 0, messageCount, null);}
     public List<String> receiveCount(String readTopic, int messageCount, List<String> requiredFields){return receive(readTopic, 0, messageCount, requiredFields);}
+    public List<String> receiveCount(String readTopic, int messageCount, long maxWaitInMsec){
+        List<String> messages = new ArrayList<>();
+        return stream(readTopic, 0, messageCount, maxWaitInMsec, MessageDecoder.RAW, null, StartPosition.COMMITTED, ReadMode.SUBSCRIBE, messages::add) < 0 ? null : messages;
+    }
+
+    // Typed reads - the decoder validates and builds each message in one parse
+    public <T> List<T> receiveTimeout(String readTopic, int timeoutInMsec, MessageDecoder<T> decoder){return receiveDecoded(readTopic, timeoutInMsec, 0, decoder);}
+    public <T> List<T> receiveCount(String readTopic, int messageCount, MessageDecoder<T> decoder){return receiveDecoded(readTopic, 0, messageCount, decoder);}
+
+    private <T> List<T> receiveDecoded(String readTopic, int timeoutInMsec, int messageCount, MessageDecoder<T> decoder){
+        List<T> messages = new ArrayList<>();
+        return stream(readTopic, timeoutInMsec, messageCount, 0, decoder, null, StartPosition.COMMITTED, ReadMode.SUBSCRIBE, messages::add) < 0 ? null : messages;
+    }
+
+    // ================================ Parallel receive ================================
+
+    public enum MergeOrder { PARTITION, TIMESTAMP }
+
+    /**
+     * Reads up to {@code messageCount} messages with one consumer per partition, all polling concurrently.
+     * Every partition contributes a prefix of its records, and all workers stop as soon as the count is
+     * reached between them. Results are merged partition by partition (each in offset order) or by record
+     * timestamp.
+     * <p>
+     * The per-partition consumers are borrowed from the assigned consumer pool and keep their assignment and
+     * position between reads, so the pool (KAFKA_CONSUMER_POOL_MAX_SIZE) must hold one consumer per partition.
+     * Progress is committed per partition under a group of its own, so parallel reads continue from where the
+     * last one stopped, independently of {@link #receive}.
+     *
+     * @param timeoutInMsec stop after this long even if the count was not reached; 0 to wait for the count
+     * @return the messages, or null if the topic could not be read
+     */
+    public List<String> receiveParallel(String readTopic, int messageCount, int timeoutInMsec, List<String> requiredFields, MergeOrder order){
+        if (messageCount <= 0){
+            logger.error("Requesting parallel read with no message count");
+            return null;
+        }
+        long startTime = System.currentTimeMillis();
+        long deadline = timeoutInMsec > 0 ? startTime + timeoutInMsec : Long.MAX_VALUE;
+        String group = defaultGroupId + "-parallel";
+        Map<TopicPartition, KafkaConsumerPool.Lease> leases = new LinkedHashMap<>();
+        boolean failed = true;
+        try {
+            // Every topic has a partition 0, so its consumer can look up the others
+            TopicPartition first = new TopicPartition(readTopic, 0);
+            leases.put(first, assignedPool.checkout(first, group));
+            List<TopicPartition> partitions = partitionMetadata.partitions(readTopic, name -> topicPartitions(leases.get(first).consumer(), name));
+            if (partitions.isEmpty()){
+                logger.error("Topic {} has no partitions", readTopic);
+                return null;
+            }
+            if (partitions.size() > assignedPool.getMaxSize()){
+                logger.error("Topic {} has {} partitions but the consumer pool holds {}; raise KAFKA_CONSUMER_POOL_MAX_SIZE",
+                        readTopic, partitions.size(), assignedPool.getMaxSize());
+                return null;
+            }
+            for (TopicPartition partition : partitions){
+                if (!leases.containsKey(partition)) leases.put(partition, assignedPool.checkout(partition, group));
+            }
+            logger.info("Reading topic {} with {} partition workers: count={}", readTopic, partitions.size(), messageCount);
+
+            AtomicInteger accepted = new AtomicInteger();
+            ParallelStop stop = new ParallelStop();
+            List<Future<List<ConsumerRecord<String, byte[]>>>> workers = new ArrayList<>();
+            for (TopicPartition partition : partitions){
+                KafkaConsumer<String, byte[]> consumer = leases.get(partition).consumer();
+                workers.add(partitionReaders.submit(() ->
+                        readPartition(consumer, partition, messageCount, deadline, requiredFields, accepted, stop)));
+            }
+            List<ConsumerRecord<String, byte[]>> merged = collect(workers, stop);
+            merged.sort(mergeOrder(order));
+            List<String> messages = merged.stream().map(record -> text(record.value())).toList();
+            logger.info("Received {}/{} messages from {} partitions in {}ms", messages.size(), messageCount, partitions.size(), System.currentTimeMillis() - startTime);
+            failed = false;
+            return messages;
+        } catch (Exception e) {
+            logger.error("Error reading topic {} in parallel: {}", readTopic, e.getMessage());
+            return null;
+        } finally {
+            for (KafkaConsumerPool.Lease lease : leases.values()){
+                // A worker that failed may have left its consumer mid-poll or with an unknown position
+                if (failed) lease.invalidate();
+                lease.close();
+            }
+        }
+    }
+
+    /**
+     * Joins the workers of one parallel read. If any of them fails, the others are stopped and every worker is
+     * waited for before the failure is rethrown, so no consumer is still polling when its lease is released.
+     */
+    static List<ConsumerRecord<String, byte[]>> collect(List<Future<List<ConsumerRecord<String, byte[]>>>> workers,
+                                                        ParallelStop stop) throws ExecutionException, InterruptedException {
+        List<ConsumerRecord<String, byte[]>> merged = new ArrayList<>();
+        try {
+            for (Future<List<ConsumerRecord<String, byte[]>>> worker : workers){
+                merged.addAll(worker.get());
+            }
+            return merged;
+        } catch (ExecutionException | InterruptedException | RuntimeException e) {
+            stop.stopAll();
+            boolean interrupted = Thread.interrupted();
+            for (Future<List<ConsumerRecord<String, byte[]>>> worker : workers){
+                while (!worker.isDone()){
+                    try {
+                        worker.get();
+                    } catch (InterruptedException ignored) {
+                        interrupted = true;
+                    } catch (ExecutionException | CancellationException ignored) {
+                        // Only the first failure is reported
+                    }
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    private static String text(byte[] value){
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+    static Comparator<ConsumerRecord<String, byte[]>> mergeOrder(MergeOrder order){
+        return order == MergeOrder.TIMESTAMP
+                ? Comparator.comparingLong((ConsumerRecord<String, byte[]> record) -> record.timestamp())
+                    .thenComparingInt(ConsumerRecord::partition).thenComparingLong(ConsumerRecord::offset)
+                : Comparator.comparingInt((ConsumerRecord<String, byte[]> record) -> record.partition())
+                    .thenComparingLong(ConsumerRecord::offset);
+    }
 
-    private boolean checkCount(int count, int target){
+    /**
+     * Stops the workers of one parallel read. Only consumers still polling are woken up, so no wakeup is left
+     * pending on a consumer that goes back to the pool.
+     */
+    static class ParallelStop {
+        private final Set<org.apache.kafka.clients.consumer.Consumer<?, ?>> polling = new HashSet<>();
+        private boolean stopped = false;
+
+        synchronized boolean start(org.apache.kafka.clients.consumer.Consumer<?, ?> consumer){
+            if (stopped) return false;
+            polling.add(consumer);
+            return true;
+        }
+
+        synchronized void finish(org.apache.kafka.clients.consumer.Consumer<?, ?> consumer){
+            polling.remove(consumer);
+        }
+
+        synchronized boolean isStopped(){
+            return stopped;
+        }
+
+        synchronized void stopAll(){
+            if (stopped) return;
+            stopped = true;
+            polling.forEach(org.apache.kafka.clients.consumer.Consumer::wakeup);
+        }
+    }
+
+    static List<ConsumerRecord<String, byte[]>> readPartition(org.apache.kafka.clients.consumer.Consumer<String, byte[]> consumer,
+                                                              TopicPartition partition, int messageCount, long deadline,
+                                                              List<String> requiredFields, AtomicInteger accepted, ParallelStop stop){
+        // A pooled consumer already holds the partition and its position from the last read
+        if (!consumer.assignment().equals(Collections.singleton(partition))){
+            consumer.assign(Collections.singletonList(partition));
+        }
+        List<ConsumerRecord<String, byte[]>> kept = new ArrayList<>();
+        long nextOffset = -1;   // Offset of the first record this worker did not use up
+        if (stop.start(consumer)){
+            try {
+                long remaining;
+                // Blocks until records arrive or the deadline passes; stopAll wakes the poll up early
+                polling:
+                while (!stop.isStopped() && (remaining = deadline - System.currentTimeMillis()) > 0){
+                    for (ConsumerRecord<String, byte[]> record : consumer.poll(Duration.ofMillis(remaining))){
+                        if (requiredFields == null || Parser.isValidMessage(text(record.value()), requiredFields)){
+                            int position = accepted.incrementAndGet();
+                            if (position > messageCount){
+                                // Another partition got there first - leave this record for the next read
+                                nextOffset = record.offset();
+                                stop.stopAll();
+                                break polling;
+                            }
+                            kept.add(record);
+                            if (position == messageCount) stop.stopAll();
+                        }
+                        nextOffset = record.offset() + 1;
+                    }
+                }
+            } catch (WakeupException e) {
+                // Count reached by another worker, or another worker failed
+            } catch (RuntimeException e) {
+                // The read is failing, so the other workers need not wait for the deadline
+                stop.stopAll();
+                throw e;
+            } finally {
+                stop.finish(consumer);
+            }
+        }
+        if (nextOffset >= 0){
+            Map<TopicPartition, OffsetAndMetadata> offsets = Map.of(partition, new OffsetAndMetadata(nextOffset));
+            try {
+                consumer.commitSync(offsets);
+            } catch (WakeupException e) {
+                // The wakeup arrived after polling finished; it only interrupts one call
+                consumer.commitSync(offsets);
+            }
+            // Records polled past the ones used stay for the next read of this consumer
+            consumer.seek(partition, nextOffset);
+        } else {
+            try {
+                consumer.position(partition);
+            } catch (WakeupException e) {
+                // Cleared, so the next read of this consumer is not interrupted
+            }
+        }
+        return kept;
+    }
+
+    private static boolean checkCount(int count, int target){
         return (count >= target);
     }
     // ================================ Send ================================
 
     public boolean push(String topic, List<String> messages){
-        logger.info("Pushing {} messages to {}", messages.size(), topic);
-        for (int i = 0; i < messages.size(); i++){
-            int count = 0;
-            while (!send(topic, messages.get(i))){
-                count++;
-                logger.error("Error pushing to kafka ({}/{}). Retrying...", i, messages.size());
-                if (count > 5){
-                    logger.error("Aborting push after 5 retries. {}/{} messages pushed", i, messages.size());
-                    return false;
-                }
+        PublishResult result = publish(topic, messages);
+        return result.failed == 0;
+    }
+
+    /**
+     * Sends all messages without waiting between them, so the producer can batch them, then waits once for
+     * every acknowledgement. Retries are left to the producer, which keeps retrying transient errors until
+     * delivery.timeout.ms; a record that still fails is reported, not sent again, as it may have been written
+     * even though no acknowledgement arrived.
+     *
+     * @return per-record success and the total time taken
+     */
+    public PublishResult publish(String topic, List<String> messages){
+        return publish(topic, messages, profileFor(topic));
+    }
+
+    /**
+     * As {@link #publish(String, List)}, with a named producer profile instead of the topic's own.
+     *
+     * @throws IllegalArgumentException if there is no profile with that name
+     */
+    public PublishResult publish(String topic, List<String> messages, String profileName){
+        KafkaProducer<String, String> producer = producer(profileName);
+        logger.info("Publishing {} messages to {} with profile {}", messages.size(), topic, profileName);
+        long startTime = System.currentTimeMillis();
+        PublishResult result = new PublishResult(messages.size());
+        result.profile = profileName;
+        List<CompletableFuture<Exception>> sends = new ArrayList<>();
+        for (String message : messages){
+            CompletableFuture<Exception> sent = new CompletableFuture<>();
+            try {
+                producer.send(new ProducerRecord<>(topic, message), (recordMetadata, ex) -> sent.complete(ex));
+            } catch (Exception e) {
+                sent.complete(e);
             }
+            sends.add(sent);
         }
-        return true;
+        // One wait for the whole batch; every callback fires by delivery.timeout.ms at the latest
+        CompletableFuture.allOf(sends.toArray(new CompletableFuture[0])).join();
+
+        for (int i = 0; i < sends.size(); i++){
+            Exception ex = sends.get(i).join();
+            if (ex == null) result.success.set(i, true);
+            else result.errors.set(i, ex.getMessage());
+        }
+        result.sent = (int) result.success.stream().filter(sent -> sent).count();
+        result.failed = messages.size() - result.sent;
+        result.elapsedMs = System.currentTimeMillis() - startTime;
+        if (result.failed > 0){
+            logger.error("Published {}/{} messages to {} in {}ms", result.sent, messages.size(), topic, result.elapsedMs);
+        } else {
+            logger.info("Published {} messages to {} in {}ms", result.sent, topic, result.elapsedMs);
+        }
+        return result;
     }
 
     public boolean push(String topic, String message){
@@ -169,7 +779,7 @@ public class KafkaService {
     // Sends a message to a topic
     private boolean send(String topic, String message){
         try{
-            producer.send(new ProducerRecord<>(topic, message), (recordMetadata, ex) -> {
+            producer(profileFor(topic)).send(new ProducerRecord<>(topic, message), (recordMetadata, ex) -> {
                 if (ex != null) ex.printStackTrace();
                 else logger.debug("Pushed to {}: message={}", topic, message);
             }).get(5000, TimeUnit.MILLISECONDS);
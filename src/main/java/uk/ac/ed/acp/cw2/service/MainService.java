@@ -15,6 +15,7 @@ public class MainService {
     private final KafkaService kafkaService;
     private final StorageService storageService;
     private final CacheService cacheService;
+    private final RuntimeEnvironment environment;
 
     @Autowired
     public MainService(RuntimeEnvironment environment,
@@ -22,6 +23,7 @@ public class MainService {
                        CacheService cacheService,
                        KafkaService kafkaService,
                        StorageService storageService) {
+        this.environment = environment;
         this.rabbitMqService = rabbitMqService;
         this.cacheService = cacheService;
         this.kafkaService = kafkaService;
@@ -50,7 +52,8 @@ public class MainService {
     }
 
     public void transformMessages(TransformRequest request){
-        MessageTransformer transformer = new MessageTransformer(request, cacheService, rabbitMqService);
+        MessageTransformer transformer = new MessageTransformer(request, cacheService, rabbitMqService,
+                environment.isTransformWriteBehind());
         transformer.transformMessages();
     }
 }
@@ -0,0 +1,163 @@
+package uk.ac.ed.acp.cw2.service;
+
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process (L1) cache that sits in front of Redis. Entries are bounded by count and by bytes and expire
+ * after a fixed TTL. Consistency with writes from other instances relies on {@link NearCacheInvalidator},
+ * which removes entries as Redis reports changes; while it is not subscribed the cache serves nothing.
+ * <p>
+ * Reads that miss take a {@link #stamp(String)} before going to Redis and hand it back to
+ * {@link #put(String, byte[], long)}. If the key was invalidated in between, the (possibly stale) value
+ * is dropped instead of cached.
+ */
+public class NearCache {
+    private static final Logger logger = LoggerFactory.getLogger(NearCache.class);
+    private static final int STRIPES = 64;
+    private static final long ENTRY_OVERHEAD_BYTES = 64;
+
+    private record Entry(byte[] value, long expiresAt, long size) {}
+
+    @Getter
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlMs;
+    private volatile boolean active = false;
+
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private final AtomicLong[] stamps = new AtomicLong[STRIPES];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public NearCache(boolean enabled, int maxEntries, long maxBytes, long ttlMs) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlMs = ttlMs;
+        for (int i = 0; i < STRIPES; i++) {
+            stamps[i] = new AtomicLong();
+        }
+    }
+
+    // ================================ Lookup ================================
+
+    public byte[] get(String key) {
+        if (!isServing()) return null;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            if (entry.expiresAt() < System.currentTimeMillis()) {
+                remove(key);
+                evictions.increment();
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.value();
+        }
+    }
+
+    public long stamp(String key) {
+        return stripe(key).get();
+    }
+
+    public void put(String key, byte[] value, long stamp) {
+        if (!isServing() || value == null) return;
+        long size = key.length() * 2L + value.length + ENTRY_OVERHEAD_BYTES;
+        if (size > maxBytes) return;
+        synchronized (this) {
+            // Invalidated while the value was being fetched
+            if (stripe(key).get() != stamp) return;
+            remove(key);
+            entries.put(key, new Entry(value, System.currentTimeMillis() + ttlMs, size));
+            bytes += size;
+            evictOverflow();
+        }
+    }
+
+    // ================================ Invalidate ================================
+
+    public void invalidate(String key) {
+        if (!enabled) return;
+        stripe(key).incrementAndGet();
+        synchronized (this) {
+            if (remove(key)) {
+                invalidations.increment();
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        if (!enabled) return;
+        for (AtomicLong stamp : stamps) {
+            stamp.incrementAndGet();
+        }
+        synchronized (this) {
+            invalidations.add(entries.size());
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    // Called by the invalidator as its subscription comes up or goes down
+    void setActive(boolean active) {
+        if (this.active != active) {
+            logger.info("Near cache {}", active ? "serving" : "suspended");
+        }
+        invalidateAll();
+        this.active = active;
+    }
+
+    // ================================ Metrics ================================
+
+    public long getHits() {return hits.sum();}
+    public long getMisses() {return misses.sum();}
+    public long getEvictions() {return evictions.sum();}
+    public long getInvalidations() {return invalidations.sum();}
+    public synchronized int getSize() {return entries.size();}
+    public synchronized long getBytes() {return bytes;}
+
+    // ================================ Internal ================================
+
+    private boolean isServing() {
+        return enabled && active;
+    }
+
+    private AtomicLong stripe(String key) {
+        return stamps[(key.hashCode() & 0x7fffffff) % STRIPES];
+    }
+
+    private boolean remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed == null) return false;
+        bytes -= removed.size();
+        return true;
+    }
+
+    private void evictOverflow() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            bytes -= eldest.getValue().size();
+            it.remove();
+            evictions.increment();
+        }
+    }
+}
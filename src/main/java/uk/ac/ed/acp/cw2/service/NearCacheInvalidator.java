@@ -0,0 +1,217 @@
+package uk.ac.ed.acp.cw2.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps a {@link NearCache} consistent with Redis by subscribing to keyspace notifications and
+ * invalidating each key Redis reports as changed (set, deleted, expired or evicted). Each Redis node gets
+ * its own thread with a dedicated connection, since a subscribed connection cannot be used for anything
+ * else and every node only publishes events for the keys it holds.
+ * <p>
+ * The near cache only serves while every node's subscription is up. On any disconnect it is cleared and
+ * suspended until the subscription is re-established, as notifications sent in between are lost.
+ * <p>
+ * The node list is re-read every {@value #TOPOLOGY_CHECK_MS} ms (after asking a cluster to refresh its
+ * slot map), so primaries promoted by a failover or added by a reshard get a subscription of their own and
+ * nodes that left are dropped. A new node suspends the near cache until its subscription is up, since
+ * writes it took before then were never reported.
+ */
+public class NearCacheInvalidator implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(NearCacheInvalidator.class);
+    private static final long RECONNECT_DELAY_MS = 5000;
+    private static final long TOPOLOGY_CHECK_MS = 10000;
+
+    private final RedisShards shards;
+    private final NearCache nearCache;
+    private final Map<String, Subscriber> subscribers = new HashMap<>();
+    private Thread watcher;
+    private boolean serving = false;
+    private volatile boolean running = false;
+
+    public NearCacheInvalidator(RedisShards shards, NearCache nearCache) {
+        this.shards = shards;
+        this.nearCache = nearCache;
+    }
+
+    public void start() {
+        if (!nearCache.isEnabled()) return;
+        running = true;
+        syncNodes(shards.getNodes());
+        watcher = new Thread(this::watchTopology, "near-cache-topology");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    @Override
+    public synchronized void close() {
+        running = false;
+        if (watcher != null) watcher.interrupt();
+        for (Subscriber subscriber : subscribers.values()) {
+            subscriber.stop();
+        }
+        subscribers.clear();
+    }
+
+    /**
+     * Starts a subscriber for every node not yet covered and stops the ones for nodes no longer listed.
+     */
+    synchronized void syncNodes(List<String> nodes) {
+        if (!running) return;
+        Set<String> current = new HashSet<>(nodes);
+        Iterator<Map.Entry<String, Subscriber>> it = subscribers.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Subscriber> entry = it.next();
+            if (!current.contains(entry.getKey())) {
+                logger.info("Redis node {} left the topology, dropping its subscription", entry.getKey());
+                entry.getValue().stop();
+                it.remove();
+            }
+        }
+        for (String node : current) {
+            if (!subscribers.containsKey(node)) {
+                Subscriber subscriber = new Subscriber(node);
+                subscribers.put(node, subscriber);
+                subscriber.thread.start();
+            }
+        }
+        updateActive();
+    }
+
+    // Serve only while every node in the current topology is reporting its changes
+    private synchronized void updateActive() {
+        boolean allUp = running && !subscribers.isEmpty();
+        for (Subscriber subscriber : subscribers.values()) {
+            allUp &= subscriber.up;
+        }
+        if (allUp != serving) {
+            serving = allUp;
+            nearCache.setActive(allUp);
+        }
+    }
+
+    // Events may have been missed, so clear even if another node keeps the near cache suspended
+    private synchronized void subscriptionLost() {
+        serving = false;
+        nearCache.setActive(false);
+        updateActive();
+    }
+
+    private void watchTopology() {
+        while (running) {
+            try {
+                Thread.sleep(TOPOLOGY_CHECK_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                shards.refresh();
+                syncNodes(shards.getNodes());
+            } catch (Exception e) {
+                logger.error("Could not refresh Redis topology for the near cache: {}", e.getMessage());
+            }
+        }
+    }
+
+    private class Subscriber implements Runnable {
+        private final String node;
+        private final Thread thread;
+        private volatile JedisPubSub subscription;
+        private volatile boolean up = false;
+        private volatile boolean stopped = false;
+
+        Subscriber(String node) {
+            this.node = node;
+            this.thread = new Thread(this, "near-cache-invalidator-" + node);
+            this.thread.setDaemon(true);
+        }
+
+        void stop() {
+            stopped = true;
+            JedisPubSub current = subscription;
+            if (current != null && current.isSubscribed()) {
+                current.punsubscribe();
+            }
+            thread.interrupt();
+        }
+
+        @Override
+        public void run() {
+            while (running && !stopped) {
+                try (Jedis jedis = new Jedis(HostAndPort.from(node))) {
+                    if (enableNotifications(jedis)) {
+                        String prefix = "__keyspace@" + jedis.getDB() + "__:";
+                        subscription = new JedisPubSub() {
+                            @Override
+                            public void onPSubscribe(String pattern, int subscribedChannels) {
+                                if (stopped) {
+                                    punsubscribe();
+                                    return;
+                                }
+                                logger.info("Subscribed to keyspace notifications {} on {}", pattern, node);
+                                up = true;
+                                updateActive();
+                            }
+
+                            @Override
+                            public void onPMessage(String pattern, String channel, String message) {
+                                nearCache.invalidate(channel.substring(prefix.length()));
+                            }
+                        };
+                        // Blocks until unsubscribed or the connection drops
+                        jedis.psubscribe(subscription, prefix + "*");
+                    }
+                } catch (Exception e) {
+                    if (!stopped) {
+                        logger.error("Keyspace notification subscription lost on {}: {}", node, e.getMessage());
+                    }
+                } finally {
+                    up = false;
+                    subscriptionLost();
+                }
+                if (running && !stopped) {
+                    try {
+                        Thread.sleep(RECONNECT_DELAY_MS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    // Make sure the server publishes keyspace events for string, generic, expired and evicted changes
+    private boolean enableNotifications(Jedis jedis) {
+        try {
+            List<String> config = jedis.configGet("notify-keyspace-events");
+            String flags = config.size() > 1 ? config.get(1) : "";
+            StringBuilder required = new StringBuilder();
+            if (!flags.contains("K")) required.append('K');
+            if (!flags.contains("A")) {
+                for (char flag : new char[]{'g', '$', 'x', 'e'}) {
+                    if (flags.indexOf(flag) < 0) required.append(flag);
+                }
+            }
+            if (required.length() > 0) {
+                logger.info("Enabling keyspace notifications: {} -> {}", flags, flags + required);
+                jedis.configSet("notify-keyspace-events", flags + required);
+            }
+            return true;
+        } catch (Exception e) {
+            logger.error("Could not enable keyspace notifications, near cache stays suspended: {}", e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package uk.ac.ed.acp.cw2.service;
+
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Partitions of each topic, looked up once and kept for {@code refreshMs} before they are looked up again, so
+ * reads that assign partitions directly do not ask the broker for metadata every time. Topics the lookup finds
+ * no partitions for are not cached, so a topic is picked up as soon as it is created.
+ */
+public class PartitionMetadataCache {
+    private final long refreshMs;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private record Entry(List<TopicPartition> partitions, long fetchedAt) {}
+
+    public PartitionMetadataCache(long refreshMs) {
+        this.refreshMs = refreshMs;
+    }
+
+    /**
+     * @param lookup fetches the topic's partitions from the broker when the cached ones are missing or stale
+     * @return the topic's partitions, empty if it has none
+     */
+    public List<TopicPartition> partitions(String topic, Function<String, List<TopicPartition>> lookup) {
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(topic);
+        if (entry != null && now - entry.fetchedAt() < refreshMs) return entry.partitions();
+        List<TopicPartition> partitions = lookup.apply(topic);
+        if (partitions == null || partitions.isEmpty()) {
+            entries.remove(topic);
+            return List.of();
+        }
+        Entry fetched = new Entry(List.copyOf(partitions), now);
+        entries.put(topic, fetched);
+        return fetched.partitions();
+    }
+
+    /**
+     * Drops the cached partitions of a topic, e.g. after a read found them out of date.
+     */
+    public void invalidate(String topic) {
+        entries.remove(topic);
+    }
+}
@@ -0,0 +1,233 @@
+package uk.ac.ed.acp.cw2.service;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ed.acp.cw2.Utilities.MessageDecoder;
+import uk.ac.ed.acp.cw2.model.ReceiveResult.StopReason;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Manual-ack consumer for one read of a queue. The broker sends at most the prefetch window of unacked messages,
+ * and accepted messages are acked in batches with {@code multiple = true}, half a window at a time so deliveries
+ * keep flowing. The read stops on whichever comes first: {@code messageCount} messages accepted, the next message
+ * taking it past {@code maxBytes}, or the caller's deadline in {@link #await}. Anything delivered after that is
+ * nacked back onto the queue instead of being lost.
+ * <p>
+ * Deliveries are handled on the channel's dispatch thread, one at a time and in order. The consumer is done only
+ * when the broker has confirmed the cancel, after every delivery before it has been handled; the last batch is
+ * acked then, so nothing is left unacked on the channel when it goes back to the pool.
+ * <p>
+ * If the channel shuts down mid-read, the broker requeues every unacked delivery. The read then keeps only the
+ * messages covered by its last ack, so nothing it returns is also handed to the next reader.
+ */
+public class QueueConsumer<T> extends DefaultConsumer {
+    private static final Logger logger = LoggerFactory.getLogger(QueueConsumer.class);
+
+    private final MessageDecoder<T> decoder;
+    private final int messageCount;
+    private final long maxBytes;
+    private final int prefetch;
+    private final int ackBatchSize;
+    private final List<T> messages = new ArrayList<>();
+    private final AtomicReference<StopReason> stopReason = new AtomicReference<>();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final CountDownLatch cancelled = new CountDownLatch(1);
+    private long bytes = 0;
+    private long lastTag = 0;
+    private int unacked = 0;
+    private int requeued = 0;
+    private int ackedMessages = 0;  // Accepted messages covered by the last ack
+    private long ackedBytes = 0;
+    private volatile boolean channelLost = false;
+
+    public QueueConsumer(Channel channel, MessageDecoder<T> decoder, int messageCount, int prefetch) {
+        this(channel, decoder, messageCount, 0, prefetch);
+    }
+
+    /**
+     * @param messageCount messages to accept before stopping, or 0 for no limit
+     * @param maxBytes     total size of accepted message bodies to stop at, or 0 for no limit; the first message
+     *                     is always accepted, however large
+     * @param prefetch     most unacked messages the broker may send; capped at messageCount so a counted read is
+     *                     not sent more than it asked for
+     */
+    public QueueConsumer(Channel channel, MessageDecoder<T> decoder, int messageCount, long maxBytes, int prefetch) {
+        super(channel);
+        this.decoder = decoder;
+        this.messageCount = messageCount;
+        this.maxBytes = maxBytes;
+        this.prefetch = messageCount > 0 ? Math.min(prefetch, messageCount) : prefetch;
+        this.ackBatchSize = Math.max(1, this.prefetch / 2);
+    }
+
+    /**
+     * Sets the prefetch window on the channel and starts consuming.
+     */
+    public void start(String queueName) throws IOException {
+        getChannel().basicQos(prefetch);
+        getChannel().basicConsume(queueName, false, this);
+    }
+
+    @Override
+    public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body)
+            throws IOException {
+        long tag = envelope.getDeliveryTag();
+        if (stopReason.get() == null && maxBytes > 0 && !messages.isEmpty() && bytes + body.length > maxBytes) {
+            stopWith(StopReason.BYTES);
+        }
+        if (stopReason.get() != null) {
+            // Delivered after the read stopped; put it back for the next read
+            getChannel().basicNack(tag, false, true);
+            requeued++;
+            return;
+        }
+        // Validate and decode in one go; rejected messages are acked and skipped
+        T message = decode(body);
+        lastTag = tag;
+        unacked++;
+        if (message != null) {
+            messages.add(message);
+            bytes += body.length;
+            logger.debug("Received message {}/{}: {}", messages.size(), messageCount, message);
+            if (messageCount > 0 && messages.size() >= messageCount) {
+                // The rest of the batch is acked once the cancel is confirmed
+                stopWith(StopReason.COUNT);
+                return;
+            }
+        }
+        if (unacked >= ackBatchSize) ack();
+    }
+
+    // A decoder that throws rejects the message rather than failing the read
+    private T decode(byte[] body) {
+        try {
+            return decoder.decode(body);
+        } catch (RuntimeException e) {
+            logger.error("Error decoding message of {} bytes: {}", body.length, e.getMessage());
+            return null;
+        }
+    }
+
+    // The first reason to stop is the one reported
+    private void stopWith(StopReason reason) {
+        stopReason.compareAndSet(null, reason);
+        stopped.countDown();
+    }
+
+    private void ack() throws IOException {
+        if (unacked == 0) return;
+        getChannel().basicAck(lastTag, true);
+        unacked = 0;
+        ackedMessages = messages.size();
+        ackedBytes = bytes;
+    }
+
+    @Override
+    public void handleCancelOk(String consumerTag) {
+        finish();
+    }
+
+    @Override
+    public void handleCancel(String consumerTag) {
+        // Cancelled by the broker, e.g. the queue was deleted
+        logger.error("Consumer {} cancelled by the broker", consumerTag);
+        stopWith(StopReason.CANCELLED);
+        finish();
+    }
+
+    @Override
+    public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+        if (cancelled.getCount() > 0) {
+            // Unacked messages go back to the queue with the channel, so they are not part of this read
+            channelLost = true;
+            int dropped = messages.size() - ackedMessages;
+            messages.subList(ackedMessages, messages.size()).clear();
+            bytes = ackedBytes;
+            logger.error("Channel shut down mid-read, {} unacked messages left to the broker: {}", dropped, sig.getMessage());
+        }
+        stopWith(StopReason.CANCELLED);
+        cancelled.countDown();
+    }
+
+    private void finish() {
+        try {
+            ack();
+        } catch (IOException e) {
+            logger.error("Error acking messages: {}", e.getMessage());
+        } finally {
+            cancelled.countDown();
+        }
+    }
+
+    /**
+     * Waits for the read to stop, returning as soon as it has rather than sleeping out the timeout.
+     *
+     * @param timeoutMs how long to wait before stopping on the deadline, or 0 to wait for the count or byte budget
+     * @return why the read stopped
+     */
+    public StopReason await(long timeoutMs) throws InterruptedException {
+        if (timeoutMs > 0) {
+            if (!stopped.await(timeoutMs, TimeUnit.MILLISECONDS)) stopWith(StopReason.DEADLINE);
+        } else {
+            stopped.await();
+        }
+        return stopReason.get();
+    }
+
+    /**
+     * Cancels the consumer and waits for the broker to confirm it, so every delivery has been acked or requeued.
+     *
+     * @return false if the cancel was not confirmed in time; deliveries may then be left unacked on the channel,
+     * which should be closed to return them to the queue
+     */
+    public boolean stop(long timeoutMs) throws IOException, InterruptedException {
+        stopWith(StopReason.CANCELLED);
+        if (cancelled.getCount() > 0) getChannel().basicCancel(getConsumerTag());
+        return cancelled.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return accepted messages; only complete once {@link #stop} has returned true
+     */
+    public List<T> getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return total size of the accepted message bodies; only complete once {@link #stop} has returned true
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public StopReason getStopReason() {
+        return stopReason.get();
+    }
+
+    /**
+     * @return true if the channel shut down before the read finished; only the acked messages were kept, and the
+     * channel cannot be reused
+     */
+    public boolean isChannelLost() {
+        return channelLost;
+    }
+
+    public int getRequeued() {
+        return requeued;
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
+}
@@ -0,0 +1,116 @@
+package uk.ac.ed.acp.cw2.service;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ed.acp.cw2.data.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Declares queues once per connection instead of before every operation. The queues declared on each connection
+ * are remembered until it shuts down or recovers, when they are declared again on next use, as a broker restart
+ * can lose them. A connection that shuts down for good, without automatic recovery, is forgotten altogether. A queue that an operation finds missing can be forgotten so that it is declared again.
+ * <p>
+ * Every queue is declared with the same arguments: the queue type, lazy mode for classic queues, and a maximum
+ * length. Declaring an existing queue with different arguments fails, so these must match any queue that already
+ * exists on the broker.
+ */
+public class QueueTopology {
+    private static final Logger logger = LoggerFactory.getLogger(QueueTopology.class);
+
+    private final boolean durable;
+    private final Map<String, Object> arguments;
+    private final Map<Connection, Set<String>> declared = new ConcurrentHashMap<>();
+
+    /**
+     * @param durable   whether queues survive a broker restart; quorum queues must be durable
+     * @param arguments queue arguments, or null for none
+     */
+    public QueueTopology(boolean durable, Map<String, Object> arguments) {
+        this.durable = durable;
+        this.arguments = arguments;
+    }
+
+    /**
+     * Queue arguments from RABBITMQ_QUEUE_TYPE, RABBITMQ_QUEUE_LAZY and RABBITMQ_QUEUE_MAX_LENGTH. With none set,
+     * queues are declared as they always were: classic, non-durable and without arguments.
+     */
+    public static QueueTopology fromEnvironment(RuntimeEnvironment environment) {
+        Map<String, Object> arguments = new HashMap<>();
+        boolean quorum = "quorum".equalsIgnoreCase(environment.getRabbitMqQueueType());
+        if (quorum) {
+            arguments.put("x-queue-type", "quorum");
+        } else if (!"classic".equalsIgnoreCase(environment.getRabbitMqQueueType())) {
+            logger.error("Unknown queue type {} - declaring classic queues", environment.getRabbitMqQueueType());
+        }
+        if (environment.isRabbitMqQueueLazy()) {
+            // Quorum queues keep their messages on disk anyway
+            if (quorum) logger.warn("Lazy mode only applies to classic queues - ignoring");
+            else arguments.put("x-queue-mode", "lazy");
+        }
+        if (environment.getRabbitMqQueueMaxLength() > 0) {
+            arguments.put("x-max-length", environment.getRabbitMqQueueMaxLength());
+        }
+        return new QueueTopology(quorum, arguments.isEmpty() ? null : arguments);
+    }
+
+    /**
+     * Declares the queue on the channel's connection, unless it already has been.
+     */
+    public void declare(Channel channel, String queueName) throws IOException {
+        Set<String> queues = declaredOn(channel.getConnection());
+        if (queues.contains(queueName)) return;
+        channel.queueDeclare(queueName, durable, false, false, arguments);
+        queues.add(queueName);
+        logger.debug("Declared queue {}", queueName);
+    }
+
+    /**
+     * Forgets that the queue was declared, e.g. after it was found to be missing, so it is declared on next use.
+     */
+    public void forget(String queueName) {
+        declared.values().forEach(queues -> queues.remove(queueName));
+    }
+
+    private Set<String> declaredOn(Connection connection) {
+        Set<String> queues = declared.get(connection);
+        if (queues != null) return queues;
+        Set<String> created = ConcurrentHashMap.newKeySet();
+        queues = declared.putIfAbsent(connection, created);
+        if (queues != null) return queues;
+        // Registered outside the map update, as a connection already closed calls its listener straight away
+        connection.addShutdownListener(cause -> {
+            created.clear();
+            // A connection that will not recover is never used again, so its entry goes; a recovering one keeps
+            // its entry and listeners for when it comes back
+            if (!(connection instanceof Recoverable) || (cause != null && cause.isInitiatedByApplication())) {
+                declared.remove(connection, created);
+            }
+        });
+        if (connection instanceof Recoverable recoverable) {
+            recoverable.addRecoveryListener(new RecoveryListener() {
+                @Override
+                public void handleRecovery(Recoverable recovered) {
+                    created.clear();
+                }
+
+                @Override
+                public void handleRecoveryStarted(Recoverable recovering) {
+                }
+            });
+        }
+        return created;
+    }
+
+    public int getDeclared() {
+        return declared.values().stream().mapToInt(Set::size).sum();
+    }
+}
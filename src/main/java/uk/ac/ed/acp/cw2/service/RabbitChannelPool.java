@@ -0,0 +1,219 @@
+package uk.ac.ed.acp.cw2.service;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Bounded pool of RabbitMQ channels spread over one or more connections. Channels are not safe for concurrent
+ * publishing, so each one is used by a single thread at a time; independent requests borrow their own channel
+ * and run in parallel. When all {@code maxSize} channels are borrowed, a borrow waits up to {@code maxWaitMs}
+ * for one to be returned.
+ * <p>
+ * Channels are checked when they are borrowed and when they are returned. One that has been closed, by the
+ * broker after a channel error or together with its connection, is thrown away and a new one is opened in its
+ * place. New channels go to the connections in turn.
+ */
+public class RabbitChannelPool implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(RabbitChannelPool.class);
+
+    private final List<Connection> connections;
+    private final int maxSize;
+    private final long maxWaitMs;
+    private final Deque<Channel> idle = new ArrayDeque<>();
+    private int active = 0;
+    private int waiting = 0;
+    private long created = 0;
+    private long discarded = 0;
+    private int nextConnection = 0;
+    private boolean closed = false;
+
+    /**
+     * A borrowed channel. Closing the lease hands the channel back to the pool.
+     */
+    public class Lease implements AutoCloseable {
+        private final Channel channel;
+        private boolean invalid = false;
+        private boolean returned = false;
+
+        private Lease(Channel channel) {
+            this.channel = channel;
+        }
+
+        public Channel channel() {
+            return channel;
+        }
+
+        /**
+         * Marks the channel as unusable; it is closed instead of returned to the pool.
+         */
+        public void invalidate() {
+            invalid = true;
+        }
+
+        @Override
+        public void close() {
+            if (returned) return;
+            returned = true;
+            release(this);
+        }
+    }
+
+    /**
+     * @param connections connections to open channels on; closed with the pool
+     * @param maxSize     maximum number of channels, borrowed or idle
+     * @param maxWaitMs   how long a borrow waits for a channel when all are in use
+     */
+    public RabbitChannelPool(List<Connection> connections, int maxSize, long maxWaitMs) {
+        if (connections.isEmpty()) throw new IllegalArgumentException("Channel pool needs at least one connection");
+        this.connections = List.copyOf(connections);
+        this.maxSize = maxSize;
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    /**
+     * Opens {@code connectionCount} connections with the factory and pools channels over them.
+     */
+    public static RabbitChannelPool open(ConnectionFactory factory, int connectionCount, int maxSize, long maxWaitMs)
+            throws IOException, TimeoutException {
+        List<Connection> connections = new ArrayList<>();
+        try {
+            for (int i = 0; i < connectionCount; i++) {
+                connections.add(factory.newConnection("acp-cw2-" + i));
+            }
+        } catch (IOException | TimeoutException e) {
+            connections.forEach(RabbitChannelPool::closeQuietly);
+            throw e;
+        }
+        logger.info("Opened {} RabbitMQ connections for up to {} channels", connectionCount, maxSize);
+        return new RabbitChannelPool(connections, maxSize, maxWaitMs);
+    }
+
+    /**
+     * Borrows an open channel, opening a new one if none is idle and the pool is not full.
+     *
+     * @throws TimeoutException if every channel stays borrowed for longer than maxWaitMs
+     * @throws IOException      if a new channel could not be opened
+     */
+    public Lease borrow() throws IOException, InterruptedException, TimeoutException {
+        Connection connection;
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + maxWaitMs;
+            while (true) {
+                if (closed) throw new IllegalStateException("Channel pool is closed");
+                while (!idle.isEmpty()) {
+                    Channel channel = idle.pop();
+                    if (channel.isOpen()) {
+                        active++;
+                        return new Lease(channel);
+                    }
+                    // Closed while idle, e.g. with its connection
+                    discarded++;
+                }
+                if (active < maxSize) {
+                    // Take the slot now and open the channel outside the lock
+                    active++;
+                    connection = connections.get(nextConnection);
+                    nextConnection = (nextConnection + 1) % connections.size();
+                    break;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new TimeoutException("No RabbitMQ channel available within " + maxWaitMs + "ms");
+                }
+                waiting++;
+                try {
+                    wait(remaining);
+                } finally {
+                    waiting--;
+                }
+            }
+        }
+        Channel channel;
+        try {
+            channel = connection.createChannel();
+            if (channel == null) throw new IOException("No channel numbers left on connection " + connection);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                active--;
+                notifyAll();
+            }
+            throw e;
+        }
+        synchronized (this) {
+            created++;
+        }
+        return new Lease(channel);
+    }
+
+    private void release(Lease lease) {
+        boolean keep;
+        synchronized (this) {
+            active--;
+            keep = !lease.invalid && !closed && lease.channel.isOpen();
+            if (keep) {
+                idle.push(lease.channel);
+            } else if (!closed) {
+                discarded++;
+            }
+            notifyAll();
+        }
+        if (!keep) closeQuietly(lease.channel);
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // Already closed, or closing with its connection
+            logger.debug("Error closing {}: {}", closeable, e.getMessage());
+        }
+    }
+
+    public synchronized int getActive() {
+        return active;
+    }
+
+    public synchronized int getIdle() {
+        return idle.size();
+    }
+
+    public synchronized int getWaiting() {
+        return waiting;
+    }
+
+    public synchronized long getCreated() {
+        return created;
+    }
+
+    public synchronized long getDiscarded() {
+        return discarded;
+    }
+
+    public int getOpenConnections() {
+        return (int) connections.stream().filter(Connection::isOpen).count();
+    }
+
+    @Override
+    public void close() {
+        List<Channel> channels;
+        synchronized (this) {
+            closed = true;
+            channels = new ArrayList<>(idle);
+            idle.clear();
+            notifyAll();
+        }
+        channels.forEach(RabbitChannelPool::closeQuietly);
+        // Also closes any channel still borrowed
+        connections.forEach(RabbitChannelPool::closeQuietly);
+    }
+}
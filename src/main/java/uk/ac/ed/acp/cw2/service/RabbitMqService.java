@@ -2,8 +2,6 @@ package uk.ac.ed.acp.cw2.service;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.nio.charset.StandardCharsets;
 import java.io.IOException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,67 +11,104 @@ import com.rabbitmq.client.*;
 import org.springframework.stereotype.Service;
 
 import uk.ac.ed.acp.cw2.data.RuntimeEnvironment;
-import uk.ac.ed.acp.cw2.Utilities.Parser;
+import uk.ac.ed.acp.cw2.Utilities.MessageDecoder;
+import uk.ac.ed.acp.cw2.model.ReceiveResult;
+import uk.ac.ed.acp.cw2.model.ReceiveResult.StopReason;
 
 @Service
 public class RabbitMqService {
 
     private static final Logger logger = LoggerFactory.getLogger(RabbitMqService.class);
+    // How long a read waits for the broker to confirm its consumer was cancelled
+    private static final long CANCEL_TIMEOUT_MS = 5000;
 
-    private ConnectionFactory factory = null;
-    private Channel channel;
+    private final RabbitChannelPool channelPool;
+    private final QueueTopology topology;
+    private final long confirmTimeoutMs;
+    private final int prefetch;
 
     private final String uid = "s2093547";
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    public RabbitMqService(RuntimeEnvironment environment) {
-        factory = new ConnectionFactory();
-        factory.setHost(environment.getRabbitMqHost());
-        factory.setPort(environment.getRabbitMqPort());
-        factory.setAutomaticRecoveryEnabled(true);
-        factory.setNetworkRecoveryInterval(5000); // try every 5s
-        try{
-            Connection connection = factory.newConnection();
-            channel = connection.createChannel();
+    // Every operation borrows its own channel, so independent requests run in parallel. Queues are declared
+    // once per connection rather than on every call.
+    public RabbitMqService(RuntimeEnvironment environment, RabbitChannelPool channelPool) {
+        this.channelPool = channelPool;
+        this.topology = QueueTopology.fromEnvironment(environment);
+        this.confirmTimeoutMs = environment.getRabbitMqConfirmTimeoutMs();
+        this.prefetch = environment.getRabbitMqPrefetch();
+    }
+
+    private RabbitChannelPool.Lease borrowChannel() {
+        try {
+            return channelPool.borrow();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted while waiting for a channel");
+            return null;
         } catch (Exception e) {
-            logger.error("Error initialising channel: {}", e.getMessage());
-            throw new RuntimeException(e);
+            logger.error("Error borrowing channel: {}", e.getMessage());
+            return null;
         }
     }
     
     // ================================ Push ================================
+    // Pushes use publisher confirms: a batch is published without waiting, and push returns once the broker
+    // has confirmed every message in it. Nacked or unconfirmed messages are published again.
 
     public boolean push(String queueName, List<ObjectNode> messages) {
+        RabbitChannelPool.Lease lease = borrowChannel();
+        if (lease == null) return false;
+        try (lease) {
+            return push(lease.channel(), queueName, messages);
+        }
+    }
+
+    private boolean push(Channel channel, String queueName, List<ObjectNode> messages) {
         try {
-            channel.queueDeclare(queueName, false, false, false, null);
+            topology.declare(channel, queueName);
         } catch (Exception e) {
             logger.error("Error declaring queue: {}", e.getMessage());
             return false;
         }
-        Integer sent = 0;
         Integer totalMessages = messages.size();
+        List<String> pending = new ArrayList<>();
         for (ObjectNode message : messages) {
             try{
-                String jsonMessage = objectMapper.writeValueAsString(message);
-                Integer count = 0;
-                while (!send(queueName, jsonMessage)){
-                    count++;
-                    logger.error("Error pushing message to queue. Retrying...");
-                    if (count > 5){
-                        logger.error("Aborting push after 5 retries. {}/{} messages pushed", sent, totalMessages);
-                        return false;
-                    }
-                }
-                sent++;
-                // Reduce excessive logging
-                if (totalMessages > 1){
-                    logger.debug("Pushed message {}/{} to {}: {}", sent, totalMessages, queueName, jsonMessage);
-                }
+                pending.add(objectMapper.writeValueAsString(message));
             } catch (Exception e) {
                 logger.error("Error decoding json string {} - Skipping message", e.getMessage());
             }
         }
-        if ((int)sent != (int)totalMessages){
+        Integer sent = 0;
+        int skipped = totalMessages - pending.size();
+        try {
+            // Confirm mode stays on for the channel's lifetime, and sequence numbers only start once it is on
+            if (channel.getNextPublishSeqNo() == 0) channel.confirmSelect();
+            Integer count = 0;
+            while (!pending.isEmpty()){
+                if (count > 0){
+                    logger.error("{} messages not confirmed by the broker. Retrying...", pending.size());
+                    // Declares the queue again if it was found missing
+                    topology.declare(channel, queueName);
+                }
+                if (count++ > 5){
+                    logger.error("Aborting push after 5 retries. {}/{} messages pushed", sent, totalMessages);
+                    return false;
+                }
+                int published = pending.size();
+                pending = publish(channel, queueName, pending);
+                sent += published - pending.size();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted while waiting for confirms. {}/{} messages pushed", sent, totalMessages);
+            return false;
+        } catch (Exception e) {
+            logger.error("Error pushing messages to {}: {}", queueName, e.getMessage());
+            return false;
+        }
+        if (skipped > 0){
             logger.error("Failed to push all messages to {} (pushed: {}/{})", queueName, sent, totalMessages);
             return false;
         }
@@ -84,19 +119,49 @@ public class RabbitMqService {
         return true;
     }
 
+    /**
+     * Publishes the messages back to back, then waits once for the broker to confirm the whole batch.
+     *
+     * Messages are mandatory, so one whose queue has been deleted since it was declared is returned rather than
+     * dropped.
+     *
+     * @return messages that were nacked, returned or not confirmed in time, to be published again
+     * @throws IOException if the channel closed before the batch was confirmed
+     */
+    private List<String> publish(Channel channel, String queueName, List<String> messages) throws IOException, InterruptedException {
+        ConfirmTracker tracker = new ConfirmTracker();
+        channel.addConfirmListener(tracker);
+        channel.addReturnListener(tracker);
+        channel.addShutdownListener(tracker);
+        try {
+            for (String message : messages) {
+                // Track first, as the ack can arrive before basicPublish returns
+                tracker.track(channel.getNextPublishSeqNo(), message);
+                channel.basicPublish("", queueName, true, null, message.getBytes());
+            }
+            if (!tracker.awaitSettled(confirmTimeoutMs)) {
+                if (!channel.isOpen()) throw new IOException("Channel closed with " + tracker.getOutstanding() + " messages unconfirmed");
+                logger.error("Timed out after {}ms with {} messages unconfirmed", confirmTimeoutMs, tracker.getOutstanding());
+            }
+            if (tracker.getNacked() > 0) logger.error("Broker nacked {} messages", tracker.getNacked());
+            if (tracker.getReturned() > 0) {
+                logger.error("Broker returned {} messages - queue {} is missing", tracker.getReturned(), queueName);
+                topology.forget(queueName);
+            }
+            return tracker.unconfirmed();
+        } finally {
+            channel.removeConfirmListener(tracker);
+            channel.removeReturnListener(tracker);
+            channel.removeShutdownListener(tracker);
+        }
+    }
+
     public boolean push(String queueName, ObjectNode message) {
         List<ObjectNode> messages = new ArrayList<>();
         messages.add(message);
         return push(queueName, messages);
     }
 
-    private boolean send(String queueName, String message) {
-        try{
-            channel.basicPublish("", queueName, null, message.getBytes());
-        } catch (Exception e) {logger.error("{}", e.getMessage());return false;}
-        return true;
-    }
-
     public boolean pushToQueue(String queueName, int messageCount) {
         List<ObjectNode> messages = new ArrayList<>();
         // Create messages
@@ -111,82 +176,114 @@ public class RabbitMqService {
     }
 
     // ================================ Receive ================================
+    // Reads ack manually within a prefetch window, and return as soon as the count, deadline or byte budget is
+    // reached; messages delivered after that are requeued
 
-    private List<String> receive(String queueName, int timeoutInMsec, int messageCount, List<String> requiredFields){
+    /**
+     * Reads a queue until whichever comes first: messageCount messages accepted, the timeout, or the next message
+     * taking the read past maxBytes. A zero means no limit of that kind, but a read needs a count or a timeout.
+     *
+     * @return the messages and why the read stopped, or null if the read failed
+     */
+    public <T> ReceiveResult<T> receive(String queueName, int timeoutInMsec, int messageCount, long maxBytes, MessageDecoder<T> decoder){
         // Check inputs
         boolean checkCount = (messageCount != 0);
         boolean checkTime = (timeoutInMsec != 0);
-        boolean ignoreFields = (requiredFields == null);
+        boolean ignoreFields = (decoder == MessageDecoder.RAW);
         Integer runType = (checkCount ? 1 : 0) + (checkTime ? 2 : 0); // 0 = neither, 1 = count, 2 = time, 3 = both
         String prefix = !ignoreFields ? "[With Validation]" : "";
         switch (runType){
             case 0: logger.error(prefix + "Requesting read with no message count or timeout"); return null;
-            case 1: logger.info(prefix + "Reading queue {}: count={}", queueName, messageCount); break;
-            case 2: logger.info(prefix + "Reading queue {}: timeOut={}", queueName, timeoutInMsec); break;
-            case 3: logger.info(prefix + "Reading queue {}: timeOut={}, count={}", queueName, timeoutInMsec, messageCount); break;
+            case 1: logger.info(prefix + "Reading queue {}: count={}, maxBytes={}", queueName, messageCount, maxBytes); break;
+            case 2: logger.info(prefix + "Reading queue {}: timeOut={}, maxBytes={}", queueName, timeoutInMsec, maxBytes); break;
+            case 3: logger.info(prefix + "Reading queue {}: timeOut={}, count={}, maxBytes={}", queueName, timeoutInMsec, messageCount, maxBytes); break;
+        }
+        RabbitChannelPool.Lease lease = borrowChannel();
+        if (lease == null) return null;
+        try (lease) {
+            return receive(lease, queueName, timeoutInMsec, messageCount, maxBytes, decoder, runType, prefix);
         }
+    }
+
+    private <T> ReceiveResult<T> receive(RabbitChannelPool.Lease lease, String queueName, int timeoutInMsec, int messageCount,
+                                         long maxBytes, MessageDecoder<T> decoder, int runType, String prefix){
+        Channel channel = lease.channel();
         // Setup
-        List<String> messages = new ArrayList<>();
         long startTime = System.currentTimeMillis();
-        CountDownLatch latch = new CountDownLatch(1);
+        QueueConsumer<T> consumer = new QueueConsumer<>(channel, decoder, messageCount, maxBytes, prefetch);
         // Declare queue
         try {
-            channel.queueDeclare(queueName, false, false, false, null);
+            topology.declare(channel, queueName);
         } catch (Exception e) {
             logger.error("Error declaring queue: {}", e.getMessage());
             return null;
         }
-        // Define what to do when message is received
-        DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-            String message = new String(delivery.getBody(), StandardCharsets.UTF_8);
-            // If not ignoring fields, check if message is valid
-            if (ignoreFields || Parser.isValidMessage(message, requiredFields)){
-                messages.add(message);
-                logger.debug("Received message {}/{}: {}", messages.size(), messageCount, message);
-                if (checkCount && messages.size() >= messageCount){
-                    try {channel.basicCancel(consumerTag);} catch (IOException e) {logger.error("Error cancelling consumer: {}", e.getMessage());}
-                    latch.countDown();
-                }
-            }
-        };
-        // Receive messages
+        // Receive messages until the count, deadline or byte budget is reached
+        StopReason stopReason;
         try{
-            String consumerTag = channel.basicConsume(queueName, true, deliverCallback, tag -> {});
-            if (checkTime){
-                // Wait for enough time, then cancel consumer
-                Thread.sleep(startTime + timeoutInMsec - System.currentTimeMillis());
-                channel.basicCancel(consumerTag);
-            } else {
-                // Wait for enough messages
-                latch.await();
+            consumer.start(queueName);
+            stopReason = consumer.await(timeoutInMsec == 0 ? 0 : Math.max(1, startTime + timeoutInMsec - System.currentTimeMillis()));
+            if (!consumer.stop(CANCEL_TIMEOUT_MS)){
+                throw new IOException("Consumer cancel not confirmed within " + CANCEL_TIMEOUT_MS + "ms");
             }
         } catch (Exception e) {
             logger.error("Error receiving messages: {}", e.getMessage());
+            // The consumer may still be registered or hold unacked messages, so the channel must not be reused
+            lease.invalidate();
+            // The queue may have been deleted since it was declared
+            topology.forget(queueName);
             return null;
         }
+        if (consumer.isChannelLost()){
+            // The broker requeued what was not acked; the read returns only what it acked
+            lease.invalidate();
+            logger.error("Channel lost while reading {}, returning the {} acked messages", queueName, consumer.getMessages().size());
+        }
+        List<T> messages = consumer.getMessages();
+        long elapsed = System.currentTimeMillis() - startTime;
+        if (consumer.getRequeued() > 0){
+            logger.debug("Requeued {} messages delivered after the read stopped", consumer.getRequeued());
+        }
         // Output
         switch (runType){
-            case 1: logger.info(prefix + "Received {}/{} messages in {}ms", messages.size(), messageCount, System.currentTimeMillis() - startTime); break;
-            case 2: logger.info(prefix + "Received {} messages in {}/{}ms", messages.size(), System.currentTimeMillis() - startTime, timeoutInMsec); break;
-            case 3: logger.info(prefix + "Received {}/{} messages in {}/{}ms", messages.size(), messageCount, System.currentTimeMillis() - startTime, timeoutInMsec); break;
+            case 1: logger.info(prefix + "Received {}/{} messages in {}ms (stopped: {})", messages.size(), messageCount, elapsed, stopReason); break;
+            case 2: logger.info(prefix + "Received {} messages in {}/{}ms (stopped: {})", messages.size(), elapsed, timeoutInMsec, stopReason); break;
+            case 3: logger.info(prefix + "Received {}/{} messages in {}/{}ms (stopped: {})", messages.size(), messageCount, elapsed, timeoutInMsec, stopReason); break;
         }
         // Return received messages
         logger.info("returning: {}", messages);
-        return messages;
+        return new ReceiveResult<>(messages, consumer.getBytes(), stopReason, elapsed);
+    }
+
+    private <T> List<T> receive(String queueName, int timeoutInMsec, int messageCount, MessageDecoder<T> decoder){
+        ReceiveResult<T> result = receive(queueName, timeoutInMsec, messageCount, 0, decoder);
+        return result == null ? null : result.messages;
     }
 
     // Alt calls
-    public List<String> receiveTimeout(String queueName, int timeoutInMsec) {return receive(queueName, timeoutInMsec, 0, null);}
-    public List<String> receiveTimeout(String queueName, int timeoutInMsec, List<String> requiredFields) {return receive(queueName, timeoutInMsec, 0, requiredFields);}
-    public List<String> receiveCount(String queueName, int messageCount) {return receive(queueName, 0, messageCount, null);}
-    public List<String> receiveCount(String queueName, int messageCount, List<String> requiredFields) {return receive(queueName, 0, messageCount, requiredFields);}
-    public List<String> receiveCountWithTimeout(String queueName, int timeoutInMsec, int messageCount) {return receive(queueName, timeoutInMsec, messageCount, null);}
-    public List<String> receiveCountWithTimeout(String queueName, int timeoutInMsec, int messageCount, List<String> requiredFields) {return receive(queueName, timeoutInMsec, messageCount, requiredFields);}
+    public List<String> receiveTimeout(String queueName, int timeoutInMsec) {return receive(queueName, timeoutInMsec, 0, MessageDecoder.RAW);}
+    public List<String> receiveTimeout(String queueName, int timeoutInMsec, List<String> requiredFields) {return receive(queueName, timeoutInMsec, 0, MessageDecoder.requiring(requiredFields));}
+    public List<String> receiveCount(String queueName, int messageCount) {return receive(queueName, 0, messageCount, MessageDecoder.RAW);}
+    public List<String> receiveCount(String queueName, int messageCount, List<String> requiredFields) {return receive(queueName, 0, messageCount, MessageDecoder.requiring(requiredFields));}
+    public List<String> receiveCountWithTimeout(String queueName, int timeoutInMsec, int messageCount) {return receive(queueName, timeoutInMsec, messageCount, MessageDecoder.RAW);}
+    public List<String> receiveCountWithTimeout(String queueName, int timeoutInMsec, int messageCount, List<String> requiredFields) {return receive(queueName, timeoutInMsec, messageCount, MessageDecoder.requiring(requiredFields));}
+    // Typed reads - the decoder validates and builds each message in one parse
+    public <T> List<T> receiveTimeout(String queueName, int timeoutInMsec, MessageDecoder<T> decoder) {return receive(queueName, timeoutInMsec, 0, decoder);}
+    public <T> List<T> receiveCount(String queueName, int messageCount, MessageDecoder<T> decoder) {return receive(queueName, 0, messageCount, decoder);}
+    public <T> List<T> receiveCountWithTimeout(String queueName, int timeoutInMsec, int messageCount, MessageDecoder<T> decoder) {return receive(queueName, timeoutInMsec, messageCount, decoder);}
     // ================================ Utility ================================
     public long getQueueMessageCount(String queueName) {
+        RabbitChannelPool.Lease lease = borrowChannel();
+        if (lease == null) return -1;
+        try (lease) {
+            return getQueueMessageCount(lease.channel(), queueName);
+        }
+    }
+
+    private long getQueueMessageCount(Channel channel, String queueName) {
         // Declare queue
         try {
-            channel.queueDeclare(queueName, false, false, false, null);
+            topology.declare(channel, queueName);
         } catch (Exception e) { 
             logger.error("Error declaring queue: {}", e.getMessage());
             return -1;
@@ -195,6 +292,8 @@ public class RabbitMqService {
         try {return channel.messageCount(queueName);} 
         catch (IOException e) {
             logger.error("Error getting message count: {}", e.getMessage());
+            // The queue may have been deleted since it was declared
+            topology.forget(queueName);
             return -1;
         }
     }
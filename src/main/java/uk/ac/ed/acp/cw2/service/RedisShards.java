@@ -0,0 +1,54 @@
+package uk.ac.ed.acp.cw2.service;
+
+import redis.clients.jedis.Jedis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The set of Redis nodes the cache is spread over, and which node owns which key.
+ * Implementations exist for a single server, client-side consistent hash sharding and Redis Cluster.
+ */
+public interface RedisShards extends AutoCloseable {
+
+    /**
+     * @return identifier ("host:port") of the node that owns the key
+     */
+    String nodeFor(String key);
+
+    /**
+     * Borrows a connection to a node. Closing the returned client hands the connection back.
+     */
+    Jedis getResource(String node);
+
+    List<String> getNodes();
+
+    /**
+     * Called after the server redirected a command (cluster topology changed). No-op unless clustered.
+     */
+    default void refresh() {}
+
+    int getNumActive();
+
+    int getNumIdle();
+
+    int getNumWaiters();
+
+    @Override
+    void close();
+
+    default Jedis getResourceForKey(String key) {
+        return getResource(nodeFor(key));
+    }
+
+    default Map<String, List<String>> groupByNode(Collection<String> keys) {
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        for (String key : keys) {
+            groups.computeIfAbsent(nodeFor(key), node -> new ArrayList<>()).add(key);
+        }
+        return groups;
+    }
+}
@@ -0,0 +1,59 @@
+package uk.ac.ed.acp.cw2.service;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import uk.ac.ed.acp.cw2.Utilities.ConsistentHashRing;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Independent Redis servers with keys spread across them by a client-side consistent hash ring.
+ * Each server has its own connection pool.
+ */
+public class ShardedRedisShards implements RedisShards {
+    private final Map<String, JedisPool> pools = new LinkedHashMap<>();
+    private final ConsistentHashRing<String> ring;
+
+    public ShardedRedisShards(List<String> nodes, JedisPoolConfig poolConfig) {
+        for (String node : nodes) {
+            HostAndPort hostAndPort = HostAndPort.from(node);
+            pools.put(node, new JedisPool(poolConfig, hostAndPort.getHost(), hostAndPort.getPort()));
+        }
+        this.ring = new ConsistentHashRing<>(pools.keySet());
+    }
+
+    @Override
+    public String nodeFor(String key) {
+        return ring.nodeFor(key);
+    }
+
+    @Override
+    public Jedis getResource(String node) {
+        JedisPool pool = pools.get(node);
+        if (pool == null) {
+            throw new IllegalArgumentException("Unknown redis node " + node);
+        }
+        return pool.getResource();
+    }
+
+    @Override
+    public List<String> getNodes() {
+        return ring.getNodes();
+    }
+
+    @Override
+    public int getNumActive() {return pools.values().stream().mapToInt(JedisPool::getNumActive).sum();}
+    @Override
+    public int getNumIdle() {return pools.values().stream().mapToInt(JedisPool::getNumIdle).sum();}
+    @Override
+    public int getNumWaiters() {return pools.values().stream().mapToInt(JedisPool::getNumWaiters).sum();}
+
+    @Override
+    public void close() {
+        pools.values().forEach(JedisPool::close);
+    }
+}
@@ -0,0 +1,46 @@
+package uk.ac.ed.acp.cw2.service;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.List;
+
+/**
+ * A single Redis server behind one connection pool.
+ */
+public class StandaloneRedisShards implements RedisShards {
+    private final String node;
+    private final JedisPool pool;
+
+    public StandaloneRedisShards(String host, int port, JedisPool pool) {
+        this.node = host + ":" + port;
+        this.pool = pool;
+    }
+
+    @Override
+    public String nodeFor(String key) {
+        return node;
+    }
+
+    @Override
+    public Jedis getResource(String node) {
+        return pool.getResource();
+    }
+
+    @Override
+    public List<String> getNodes() {
+        return List.of(node);
+    }
+
+    @Override
+    public int getNumActive() {return pool.getNumActive();}
+    @Override
+    public int getNumIdle() {return pool.getNumIdle();}
+    @Override
+    public int getNumWaiters() {return pool.getNumWaiters();}
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+}
@@ -0,0 +1,104 @@
+package uk.ac.ed.acp.cw2.benchmark;
+
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import uk.ac.ed.acp.cw2.Utilities.ProducerProfiles;
+import uk.ac.ed.acp.cw2.data.RuntimeEnvironment;
+import uk.ac.ed.acp.cw2.model.ProducerProfile;
+import uk.ac.ed.acp.cw2.service.KafkaService;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sends the same messages with every producer profile against a running broker and reports throughput,
+ * bytes sent over the network (after compression) and send latency, measured from send() to the broker's
+ * acknowledgement. Profiles and broker come from the same environment variables as the service. Sends that
+ * fail are counted and reported, and left out of throughput and latency.
+ * <p>
+ * Run with:
+ * <pre>
+ *   mvn test-compile
+ *   java -cp target/test-classes:target/classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) \
+ *       uk.ac.ed.acp.cw2.benchmark.KafkaProducerProfileBenchmark [topic] [messageCount]
+ * </pre>
+ */
+public class KafkaProducerProfileBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String topic = args.length > 0 ? args[0] : "producer-profile-benchmark";
+        int messageCount = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        RuntimeEnvironment environment = RuntimeEnvironment.getEnvironment();
+        ProducerProfiles profiles = new ProducerProfiles(environment.getKafkaProducerProfiles(), environment.getKafkaTopicProfiles());
+
+        System.out.printf("%-12s %12s %14s %12s %10s %10s %8s%n", "profile", "msgs/s", "wire bytes", "bytes/msg", "p50 ms", "p99 ms", "failed");
+        for (ProducerProfile profile : profiles.getProfiles()) {
+            run(environment, profile, topic, messageCount);
+        }
+    }
+
+    private static void run(RuntimeEnvironment environment, ProducerProfile profile, String topic, int messageCount) throws Exception {
+        try (KafkaProducer<String, String> producer = new KafkaProducer<>(KafkaService.getProducerProperties(environment, profile))) {
+            // Warm up metadata and connections
+            producer.send(new ProducerRecord<>(topic, message(-1))).get();
+            double bytesBefore = metric(producer.metrics(), "outgoing-byte-total");
+
+            long[] latencies = new long[messageCount];
+            AtomicInteger failed = new AtomicInteger();
+            AtomicReference<Exception> firstError = new AtomicReference<>();
+            CountDownLatch acknowledged = new CountDownLatch(messageCount);
+            long startTime = System.nanoTime();
+            for (int i = 0; i < messageCount; i++) {
+                int index = i;
+                long sentAt = System.nanoTime();
+                producer.send(new ProducerRecord<>(topic, message(i)), (metadata, ex) -> {
+                    if (ex == null) {
+                        latencies[index] = System.nanoTime() - sentAt;
+                    } else {
+                        // Sorts last, so the percentiles only cover acknowledged sends
+                        latencies[index] = Long.MAX_VALUE;
+                        failed.incrementAndGet();
+                        firstError.compareAndSet(null, ex);
+                    }
+                    acknowledged.countDown();
+                });
+            }
+            if (!acknowledged.await(5, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("Timed out waiting for acknowledgements");
+            }
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            double wireBytes = metric(producer.metrics(), "outgoing-byte-total") - bytesBefore;
+
+            int sent = messageCount - failed.get();
+            if (sent == 0) {
+                System.out.printf("%-12s every send failed: %s%n", profile.name, firstError.get());
+                return;
+            }
+            Arrays.sort(latencies);
+            System.out.printf("%-12s %12.0f %14.0f %12.1f %10.2f %10.2f %8d%n", profile.name,
+                    sent / seconds, wireBytes, wireBytes / sent,
+                    latencies[sent / 2] / 1e6, latencies[(int) (sent * 0.99)] / 1e6, failed.get());
+            if (failed.get() > 0) {
+                System.out.printf("%-12s first failure: %s%n", profile.name, firstError.get());
+            }
+        }
+    }
+
+    // Similar in shape and size to the messages the service produces
+    private static String message(int counter) {
+        return "{\"uid\":\"s2093547\",\"counter\":" + counter + ",\"key\":\"ABCD\",\"comment\":\"benchmark message\",\"value\":" + (counter * 1.5) + "}";
+    }
+
+    private static double metric(Map<MetricName, ? extends Metric> metrics, String name) {
+        return metrics.entrySet().stream()
+                .filter(entry -> entry.getKey().group().equals("producer-metrics") && entry.getKey().name().equals(name))
+                .mapToDouble(entry -> ((Number) entry.getValue().metricValue()).doubleValue())
+                .findFirst().orElse(0);
+    }
+}
@@ -0,0 +1,96 @@
+package uk.ac.ed.acp.cw2.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import uk.ac.ed.acp.cw2.Utilities.Parser;
+import uk.ac.ed.acp.cw2.domain.MessageProcessor;
+import uk.ac.ed.acp.cw2.domain.ProcMessage;
+import uk.ac.ed.acp.cw2.domain.ProcMessageDeserializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares ways of turning a Kafka record value into a {@link ProcMessage}:
+ * <ul>
+ *     <li>legacy: bytes to String, parsed once to check the required fields and again by the constructor</li>
+ *     <li>tree: bytes to String, parsed once into a tree by {@link ProcMessage#decode}</li>
+ *     <li>streaming: {@link ProcMessageDeserializer} over the bytes</li>
+ * </ul>
+ * for a valid record carrying extra fields, and for an invalid one that has to be rejected.
+ * <p>
+ * Run with:
+ * <pre>
+ *   mvn test-compile
+ *   java -cp target/test-classes:target/classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) \
+ *       uk.ac.ed.acp.cw2.benchmark.ProcMessageDecodeBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcMessageDecodeBenchmark {
+    private static final String VALID = "{\"uid\":\"s2093547\",\"key\":\"ABCD\",\"comment\":\"benchmark record\",\"value\":1234.56,"
+            + "\"counter\":42,\"tags\":[\"a\",\"b\",\"c\"],\"meta\":{\"source\":\"producer-1\",\"ts\":1700000000000}}";
+    private static final String INVALID = "{\"uid\":\"s2093547\",\"key\":\"ABCD\",\"value\":1234.56,"
+            + "\"counter\":42,\"tags\":[\"a\",\"b\",\"c\"],\"meta\":{\"source\":\"producer-1\",\"ts\":1700000000000}}";
+
+    private final ProcMessageDeserializer deserializer = new ProcMessageDeserializer();
+    private byte[] valid;
+    private byte[] invalid;
+
+    @Setup
+    public void setup() {
+        valid = VALID.getBytes(StandardCharsets.UTF_8);
+        invalid = INVALID.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public ProcMessage legacyValid() throws Exception {
+        return legacy(valid);
+    }
+
+    @Benchmark
+    public ProcMessage treeValid() {
+        return ProcMessage.decode(new String(valid, StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public ProcMessage streamingValid() {
+        return deserializer.deserialize("topic", valid);
+    }
+
+    @Benchmark
+    public ProcMessage legacyInvalid() throws Exception {
+        return legacy(invalid);
+    }
+
+    @Benchmark
+    public ProcMessage treeInvalid() {
+        return ProcMessage.decode(new String(invalid, StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public ProcMessage streamingInvalid() {
+        return deserializer.deserialize("topic", invalid);
+    }
+
+    // StringDeserializer, then the required field check, then the constructor
+    private static ProcMessage legacy(byte[] record) throws Exception {
+        String message = new String(record, StandardCharsets.UTF_8);
+        if (!Parser.isValidMessage(message, MessageProcessor.requiredFields)) return null;
+        return new ProcMessage(message);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(ProcMessageDecodeBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,91 @@
+package uk.ac.ed.acp.cw2.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import uk.ac.ed.acp.cw2.Utilities.BinaryTransformStateCodec;
+import uk.ac.ed.acp.cw2.Utilities.JsonTransformStateCodec;
+import uk.ac.ed.acp.cw2.model.TransformNormal;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the JSON and binary cache value codecs: bytes stored per entry and encode/decode time.
+ * <p>
+ * Run with:
+ * <pre>
+ *   mvn test-compile
+ *   java -cp target/test-classes:target/classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) \
+ *       uk.ac.ed.acp.cw2.benchmark.TransformStateCodecBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformStateCodecBenchmark {
+    private static final String KEY = "ABCD";
+
+    private final JsonTransformStateCodec jsonCodec = new JsonTransformStateCodec();
+    private final BinaryTransformStateCodec binaryCodec = new BinaryTransformStateCodec();
+    private TransformNormal message;
+    private byte[] jsonBytes;
+    private byte[] binaryBytes;
+
+    @Setup
+    public void setup() {
+        message = sampleMessage();
+        jsonBytes = jsonCodec.encode(message);
+        binaryBytes = binaryCodec.encode(message);
+    }
+
+    @Benchmark
+    public byte[] encodeJson() {
+        return jsonCodec.encode(message);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return binaryCodec.encode(message);
+    }
+
+    @Benchmark
+    public TransformNormal decodeJson() {
+        return jsonCodec.decode(KEY, jsonBytes);
+    }
+
+    @Benchmark
+    public TransformNormal decodeBinary() {
+        return binaryCodec.decode(KEY, binaryBytes);
+    }
+
+    // Legacy values read through the binary codec during migration
+    @Benchmark
+    public TransformNormal decodeJsonWithBinaryCodec() {
+        return binaryCodec.decode(KEY, jsonBytes);
+    }
+
+    private static TransformNormal sampleMessage() {
+        TransformNormal message = new TransformNormal();
+        message.key = KEY;
+        message.version = 42;
+        message.value = 1234.56f;
+        return message;
+    }
+
+    public static void main(String[] args) throws Exception {
+        TransformNormal message = sampleMessage();
+        int json = new JsonTransformStateCodec().encode(message).length;
+        int binary = new BinaryTransformStateCodec().encode(message).length;
+        System.out.printf("Bytes per entry: json=%d, binary=%d (saves %d bytes, %.0f%%)%n",
+                json, binary, json - binary, 100.0 * (json - binary) / json);
+
+        Options options = new OptionsBuilder()
+                .include(TransformStateCodecBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
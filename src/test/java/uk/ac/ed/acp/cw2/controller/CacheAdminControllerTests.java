@@ -0,0 +1,136 @@
+package uk.ac.ed.acp.cw2.controller;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import uk.ac.ed.acp.cw2.model.CacheStats;
+import uk.ac.ed.acp.cw2.service.CacheService;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+// The cache service is a mock, so no Redis is needed
+class CacheAdminControllerTests {
+
+    private static final byte[] BINARY = {(byte) 0xB1, 0, 0, 1, 44, 65, 76, 0, 0};
+
+    private final CacheService cacheService = mock(CacheService.class);
+    private final MockMvc mvc = MockMvcBuilders.standaloneSetup(new CacheAdminController(cacheService)).build();
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, String>> storedBatches(int times) {
+        ArgumentCaptor<Map<String, String>> batches = ArgumentCaptor.forClass(Map.class);
+        verify(cacheService, times(times)).storeInCache(batches.capture());
+        return batches.getAllValues();
+    }
+
+    @Test
+    void testBulkGetEncodesBinaryValues() throws Exception {
+        Map<String, byte[]> values = new LinkedHashMap<>();
+        values.put("a", "1".getBytes(StandardCharsets.UTF_8));
+        values.put("b", BINARY);
+        values.put("c", null);
+        when(cacheService.retrieveBytesFromCache(List.of("a", "b", "c"))).thenReturn(values);
+        mvc.perform(post("/cache-admin/bulk/get").contentType(MediaType.APPLICATION_JSON).content("[\"a\",\"b\",\"c\"]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.a").value("1"))
+                .andExpect(jsonPath("$.b.base64").value(Base64.getEncoder().encodeToString(BINARY)))
+                .andExpect(jsonPath("$.c").isEmpty());
+    }
+
+    @Test
+    void testJsonObjectIsStoredInBatches() throws Exception {
+        StringBuilder body = new StringBuilder("{");
+        for (int i = 0; i < 1200; i++) {
+            if (i > 0) body.append(',');
+            body.append("\"k").append(i).append("\":").append(i);
+        }
+        body.append('}');
+        mvc.perform(put("/cache-admin/bulk").contentType(MediaType.APPLICATION_JSON).content(body.toString()))
+                .andExpect(status().isOk())
+                .andExpect(content().string("1200"));
+
+        List<Map<String, String>> batches = storedBatches(3);
+        assertEquals(500, batches.get(0).size());
+        assertEquals(500, batches.get(1).size());
+        assertEquals(200, batches.get(2).size());
+        assertEquals("0", batches.get(0).get("k0"));
+        assertEquals("1199", batches.get(2).get("k1199"));
+    }
+
+    @Test
+    void testEntryArrayAndNdjsonAreStored() throws Exception {
+        mvc.perform(put("/cache-admin/bulk").contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"key\":\"a\",\"value\":\"1\"},{\"key\":\"b\",\"value\":{\"x\":2}}]"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("2"));
+        mvc.perform(put("/cache-admin/bulk").contentType("application/x-ndjson")
+                        .content("{\"key\":\"c\",\"value\":\"3\"}\n{\"d\":\"4\",\"key\":\"k\"}\n"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("3"));
+
+        List<Map<String, String>> batches = storedBatches(2);
+        assertEquals(Map.of("a", "1", "b", "{\"x\":2}"), batches.get(0));
+        // An object with fields besides key and value is a plain map of entries
+        assertEquals(Map.of("c", "3", "d", "4", "key", "k"), batches.get(1));
+    }
+
+    @Test
+    void testNonObjectEntryIsRejected() throws Exception {
+        mvc.perform(put("/cache-admin/bulk").contentType(MediaType.APPLICATION_JSON).content("[\"a\"]"))
+                .andExpect(status().isBadRequest());
+        verify(cacheService, never()).storeInCache(anyMap());
+    }
+
+    @Test
+    void testBadEntryAfterTheFirstBatchStoresNothing() throws Exception {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < 600; i++) {
+            body.append("{\"key\":\"k").append(i).append("\",\"value\":").append(i).append("},");
+        }
+        body.append("\"bad\"]");
+        mvc.perform(put("/cache-admin/bulk").contentType(MediaType.APPLICATION_JSON).content(body.toString()))
+                .andExpect(status().isBadRequest());
+        verify(cacheService, never()).storeInCache(anyMap());
+    }
+
+    @Test
+    void testBadKeyAfterTheFirstBatchWritesNothing() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 600; i++) {
+            body.append("\"k").append(i).append("\"\n");
+        }
+        body.append("42\n");
+        mvc.perform(post("/cache-admin/bulk/get").contentType("application/x-ndjson").content(body.toString()))
+                .andExpect(status().isBadRequest());
+        verify(cacheService, never()).retrieveBytesFromCache(anyCollection());
+
+        mvc.perform(post("/cache-admin/bulk/delete").contentType(MediaType.APPLICATION_JSON).content("[\"a\", {\"b\""))
+                .andExpect(status().isBadRequest());
+        verify(cacheService, never()).removeFromCache(anyList());
+    }
+
+    @Test
+    void testBulkDeleteAndStats() throws Exception {
+        mvc.perform(post("/cache-admin/bulk/delete").contentType(MediaType.APPLICATION_JSON).content("[\"a\",\"b\"]"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("2"));
+        verify(cacheService).removeFromCache(List.of("a", "b"));
+
+        when(cacheService.stats(10)).thenReturn(new CacheStats());
+        mvc.perform(get("/cache-admin/stats").param("samples", "10"))
+                .andExpect(status().isOk());
+        verify(cacheService).stats(10);
+    }
+}
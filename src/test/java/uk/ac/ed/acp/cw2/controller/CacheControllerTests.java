@@ -0,0 +1,53 @@
+package uk.ac.ed.acp.cw2.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import uk.ac.ed.acp.cw2.service.CacheService;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+// The cache service is a mock, so no Redis is needed
+class CacheControllerTests {
+
+    private static final byte[] BINARY = {(byte) 0xB1, 0, 0, 1, 44, 65, 76, 0, 0};
+
+    private final CacheService cacheService = mock(CacheService.class);
+    private final MockMvc mvc = MockMvcBuilders.standaloneSetup(new CacheController(cacheService)).build();
+
+    @Test
+    void testTextValueIsReturnedAsText() throws Exception {
+        when(cacheService.retrieveBytesFromCache("k")).thenReturn("h\u00e9llo".getBytes(StandardCharsets.UTF_8));
+        mvc.perform(get("/cache/k"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_PLAIN))
+                .andExpect(content().string("h\u00e9llo"));
+    }
+
+    @Test
+    void testBinaryValueIsReturnedUnchanged() throws Exception {
+        when(cacheService.retrieveBytesFromCache("k")).thenReturn(BINARY);
+        mvc.perform(get("/cache/k"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_OCTET_STREAM))
+                .andExpect(content().bytes(BINARY));
+    }
+
+    @Test
+    void testAdminNamedKeysReachTheKeyEndpoints() throws Exception {
+        for (String key : new String[]{"bulk", "export", "stats"}) {
+            when(cacheService.retrieveBytesFromCache(key)).thenReturn(key.getBytes(StandardCharsets.UTF_8));
+            mvc.perform(get("/cache/" + key))
+                    .andExpect(status().isOk())
+                    .andExpect(content().string(key));
+        }
+        mvc.perform(put("/cache/bulk").contentType(MediaType.TEXT_PLAIN).content("v"))
+                .andExpect(status().isOk());
+        verify(cacheService).storeInCache("bulk", "v");
+    }
+}
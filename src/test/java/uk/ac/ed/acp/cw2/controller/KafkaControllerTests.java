@@ -0,0 +1,34 @@
+package uk.ac.ed.acp.cw2.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import uk.ac.ed.acp.cw2.service.KafkaService;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+// The Kafka service is a mock, so no broker is needed
+class KafkaControllerTests {
+
+    private final KafkaService kafkaService = mock(KafkaService.class);
+    private final MockMvc mvc = MockMvcBuilders.standaloneSetup(new KafkaController(kafkaService)).build();
+
+    @Test
+    void testStreamWithoutTimeoutOrCountIsRejected() throws Exception {
+        mvc.perform(get("/kafka/t/stream/0"))
+                .andExpect(status().isBadRequest());
+        mvc.perform(get("/kafka/t/stream/0").param("count", "-1"))
+                .andExpect(status().isBadRequest());
+        verifyNoInteractions(kafkaService);
+    }
+
+    @Test
+    void testStreamWithCountIsStarted() throws Exception {
+        when(kafkaService.stream(eq("t"), eq(0), eq(5), anyLong(), any(), any(), any(), any(), any())).thenReturn(0);
+        mvc.perform(get("/kafka/t/stream/0").param("count", "5"))
+                .andExpect(request().asyncStarted());
+    }
+}
@@ -0,0 +1,192 @@
+package uk.ac.ed.acp.cw2.domain;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import uk.ac.ed.acp.cw2.Utilities.JsonTransformStateCodec;
+import uk.ac.ed.acp.cw2.Utilities.MessageDecoder;
+import uk.ac.ed.acp.cw2.model.TransformMessage;
+import uk.ac.ed.acp.cw2.model.TransformNormal;
+import uk.ac.ed.acp.cw2.model.TransformRequest;
+import uk.ac.ed.acp.cw2.model.TransformTombstone;
+import uk.ac.ed.acp.cw2.service.CacheService;
+import uk.ac.ed.acp.cw2.service.RabbitMqService;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+// Redis and RabbitMQ are mocks, so no server is needed
+class MessageTransformerTests {
+
+    private final CacheService cacheService = mock(CacheService.class);
+    private final RabbitMqService rabbitMqService = mock(RabbitMqService.class);
+
+    MessageTransformerTests() {
+        when(cacheService.getStateCodec()).thenReturn(new JsonTransformStateCodec());
+        when(rabbitMqService.push(anyString(), anyList())).thenReturn(true);
+    }
+
+    private static TransformNormal normal(String key, int version, float value) {
+        TransformNormal message = new TransformNormal();
+        message.key = key;
+        message.version = version;
+        message.value = value;
+        return message;
+    }
+
+    private MessageTransformer transformer(List<TransformMessage> messages, boolean writeBehind) {
+        TransformRequest request = new TransformRequest();
+        request.readQueue = "in";
+        request.writeQueue = "out";
+        request.messageCount = messages.size();
+        doReturn(messages).when(rabbitMqService).receiveCount(eq("in"), eq(messages.size()), ArgumentMatchers.<MessageDecoder<TransformMessage>>any());
+        return new MessageTransformer(request, cacheService, rabbitMqService, writeBehind);
+    }
+
+    // A window of messages: the given one first, then fillers for keys seen nowhere else
+    private static List<TransformMessage> window(TransformNormal first, int index) {
+        List<TransformMessage> window = new ArrayList<>();
+        window.add(first);
+        for (int i = 1; i < 100; i++) {
+            window.add(normal("filler-" + index + "-" + i, 1, 1.0f));
+        }
+        return window;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, CacheService.VersionedValue> lastFlush(int times) {
+        ArgumentCaptor<Map<String, CacheService.VersionedValue>> flushes = ArgumentCaptor.forClass(Map.class);
+        verify(cacheService, times(times)).cacheIfNewer(flushes.capture());
+        return flushes.getValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<List<ObjectNode>> pushedBatches(int times) {
+        ArgumentCaptor<List<ObjectNode>> batches = ArgumentCaptor.forClass(List.class);
+        verify(rabbitMqService, times(times)).push(eq("out"), batches.capture());
+        return batches.getAllValues();
+    }
+
+    @Test
+    void testMessagesArePushedOncePerWindow() {
+        when(cacheService.cacheIfNewer(anyString(), anyInt(), any(byte[].class))).thenReturn(true);
+        List<TransformMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 149; i++) {
+            messages.add(normal("k" + i, 1, 1.0f));
+        }
+        messages.add(new TransformTombstone("k0", 0f));
+        transformer(messages, false).transformMessages();
+
+        List<List<ObjectNode>> batches = pushedBatches(2);
+        assertEquals(100, batches.get(0).size());
+        assertEquals(50, batches.get(1).size());
+        // The tombstone goes out with the last window, carrying the totals at its position
+        ObjectNode tombstone = batches.get(1).get(49);
+        assertEquals(149, tombstone.get("totalMessagesWritten").asInt());
+        assertEquals(149, tombstone.get("totalRedisUpdates").asInt());
+        verify(rabbitMqService, never()).push(anyString(), any(ObjectNode.class));
+    }
+
+    @Test
+    void testFailedPushFailsTheRun() {
+        when(cacheService.cacheIfNewer(anyString(), anyInt(), any(byte[].class))).thenReturn(true);
+        when(rabbitMqService.push(anyString(), anyList())).thenReturn(false);
+        List<TransformMessage> messages = new ArrayList<>(window(normal("k", 1, 1.0f), 0));
+        messages.addAll(window(normal("j", 1, 1.0f), 1));
+        MessageTransformer transformer = transformer(messages, false);
+
+        assertThrows(RuntimeException.class, transformer::transformMessages);
+        // The run stops at the first window it could not send, before processing the next one
+        assertEquals(100, pushedBatches(1).get(0).size());
+        assertEquals(100, transformer.getTotalMessagesProcessed());
+    }
+
+    @Test
+    void testWriteBehindCoalescesUpdatesPerKey() {
+        List<TransformMessage> messages = List.of(normal("k", 1, 1.0f), normal("k", 2, 2.0f), normal("k", 3, 3.0f));
+        MessageTransformer transformer = transformer(messages, true);
+        transformer.transformMessages();
+
+        Map<String, CacheService.VersionedValue> flushed = lastFlush(1);
+        assertEquals(1, flushed.size());
+        assertEquals(3, flushed.get("k").version());
+        verify(cacheService, never()).cacheIfNewer(anyString(), anyInt(), any(byte[].class));
+        assertEquals(3, transformer.getTotalRedisUpdates());
+        assertEquals(31.5f, transformer.getTotalAdded());
+        assertEquals(37.5f, transformer.getTotalValueWritten());
+        assertEquals(3, pushedBatches(1).get(0).size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testReadsAreServedFromUnflushedBuffer() {
+        // The first window's flush fails, so k@5 is still only in the buffer when k@4 arrives
+        when(cacheService.cacheIfNewer(anyMap())).thenThrow(new RuntimeException("down")).thenReturn(Map.of());
+        List<TransformMessage> messages = new ArrayList<>(window(normal("k", 5, 1.0f), 0));
+        messages.add(normal("k", 4, 1.0f));
+        MessageTransformer transformer = transformer(messages, true);
+        transformer.transformMessages();
+
+        ArgumentCaptor<Collection<String>> prefetched = ArgumentCaptor.forClass(Collection.class);
+        verify(cacheService, times(2)).retrieveBytesFromCache(prefetched.capture());
+        assertFalse(prefetched.getAllValues().get(1).contains("k"));
+        assertEquals(100, transformer.getTotalRedisUpdates());
+        assertEquals(5, lastFlush(2).get("k").version());
+        // Nothing went out until the buffered updates were written
+        assertEquals(101, pushedBatches(1).get(0).size());
+    }
+
+    @Test
+    void testFailedFlushSendsNothing() {
+        when(cacheService.cacheIfNewer(anyMap())).thenThrow(new RuntimeException("down"));
+        List<TransformMessage> messages = new ArrayList<>(window(normal("k", 1, 1.0f), 0));
+        messages.addAll(window(normal("j", 1, 1.0f), 1));
+        messages.add(new TransformTombstone("k", 0f));
+        MessageTransformer transformer = transformer(messages, true);
+
+        assertThrows(RuntimeException.class, transformer::transformMessages);
+        verify(rabbitMqService, never()).push(anyString(), anyList());
+    }
+
+    @Test
+    void testRepeatedFailedFlushesStopTheRun() {
+        when(cacheService.cacheIfNewer(anyMap())).thenThrow(new RuntimeException("down"));
+        List<TransformMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            messages.addAll(window(normal("k" + i, 1, 1.0f), i));
+        }
+        MessageTransformer transformer = transformer(messages, true);
+
+        assertThrows(RuntimeException.class, transformer::transformMessages);
+        // The third failed flush gives up before a fourth window is processed
+        lastFlush(3);
+        assertEquals(300, transformer.getTotalMessagesProcessed());
+        verify(rabbitMqService, never()).push(anyString(), anyList());
+    }
+
+    @Test
+    void testFailedPrefetchStillConsultsBuffer() {
+        when(cacheService.cacheIfNewer(anyMap())).thenThrow(new RuntimeException("down")).thenReturn(Map.of());
+        when(cacheService.retrieveBytesFromCache(anyCollection())).thenReturn(Map.of()).thenThrow(new RuntimeException("down"));
+        when(cacheService.cacheIfNewer(anyString(), anyInt(), any(byte[].class))).thenReturn(true);
+        List<TransformMessage> messages = new ArrayList<>(window(normal("k", 5, 1.0f), 0));
+        messages.add(normal("k", 4, 1.0f));
+        messages.add(normal("k", 6, 1.0f));
+        MessageTransformer transformer = transformer(messages, true);
+        transformer.transformMessages();
+
+        // k@4 is older than the buffered k@5; k@6 goes to redis directly and replaces the buffered update
+        verify(cacheService, never()).cacheIfNewer(eq("k"), eq(4), any(byte[].class));
+        verify(cacheService).cacheIfNewer(eq("k"), eq(6), any(byte[].class));
+        assertFalse(lastFlush(2).containsKey("k"));
+        assertEquals(101, transformer.getTotalRedisUpdates());
+        assertEquals(101 * 10.5f, transformer.getTotalAdded(), 0.01f);
+    }
+}
@@ -0,0 +1,143 @@
+package uk.ac.ed.acp.cw2.service;
+
+import io.lettuce.core.GetExArgs;
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import org.junit.jupiter.api.Test;
+import uk.ac.ed.acp.cw2.Utilities.CacheExpiryPolicy;
+import uk.ac.ed.acp.cw2.data.RuntimeEnvironment;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+// Lettuce commands are mocks, so no Redis is needed
+class AsyncCacheServiceTests {
+
+    private final RedisShards shards = mock(RedisShards.class);
+    private final NearCache nearCache = new NearCache(true, 100, 1024 * 1024, 60000);
+
+    AsyncCacheServiceTests() {
+        nearCache.setActive(true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RedisClusterAsyncCommands<String, byte[]> commands() {
+        return mock(RedisClusterAsyncCommands.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> RedisFuture<T> future(T value) {
+        RedisFuture<T> future = mock(RedisFuture.class);
+        when(future.toCompletableFuture()).thenReturn(CompletableFuture.completedFuture(value));
+        return future;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private AsyncCacheService service(String mode, Map<String, List<RedisClusterAsyncCommands<String, byte[]>>> connections) {
+        RuntimeEnvironment environment = new RuntimeEnvironment();
+        environment.setRedisMode(mode);
+        AsyncCacheService service = new AsyncCacheService(environment, shards, nearCache, CacheExpiryPolicy.parse(null, null));
+        service.connect(connections);
+        return service;
+    }
+
+    @Test
+    void testShardedBatchIsSplitByRedisShards() throws Exception {
+        RedisClusterAsyncCommands<String, byte[]> first = commands();
+        RedisClusterAsyncCommands<String, byte[]> second = commands();
+        when(shards.nodeFor("a")).thenReturn("n1");
+        when(shards.nodeFor("b")).thenReturn("n2");
+        when(shards.groupByNode(any())).thenCallRealMethod();
+        RedisFuture<List<KeyValue<String, byte[]>>> firstValues = future(List.of(KeyValue.just("a", bytes("1"))));
+        RedisFuture<List<KeyValue<String, byte[]>>> secondValues = future(List.of(KeyValue.empty("b")));
+        when(first.mget("a")).thenReturn(firstValues);
+        when(second.mget("b")).thenReturn(secondValues);
+        AsyncCacheService service = service("sharded", Map.of("n1", List.of(first), "n2", List.of(second)));
+
+        Map<String, String> values = service.retrieveFromCache(List.of("a", "b")).get();
+        assertEquals("1", values.get("a"));
+        assertTrue(values.containsKey("b"));
+        assertNull(values.get("b"));
+        verify(first).mget("a");
+        verify(second).mget("b");
+    }
+
+    @Test
+    void testShardedSingleKeyGoesToOwningNode() throws Exception {
+        RedisClusterAsyncCommands<String, byte[]> first = commands();
+        RedisClusterAsyncCommands<String, byte[]> second = commands();
+        when(shards.nodeFor("b")).thenReturn("n2");
+        RedisFuture<byte[]> value = future(bytes("2"));
+        when(second.get("b")).thenReturn(value);
+        AsyncCacheService service = service("sharded", Map.of("n1", List.of(first), "n2", List.of(second)));
+
+        assertEquals("2", service.retrieveFromCache("b").get());
+        verifyNoInteractions(first);
+    }
+
+    @Test
+    void testStandaloneDoesNotRouteByShards() throws Exception {
+        RedisClusterAsyncCommands<String, byte[]> any = commands();
+        RedisFuture<byte[]> value = future(bytes("1"));
+        when(any.get("a")).thenReturn(value);
+        AsyncCacheService service = service("standalone", Map.of("*", List.of(any)));
+
+        assertEquals("1", service.retrieveFromCache("a").get());
+        verifyNoInteractions(shards);
+    }
+
+    @Test
+    void testReadsAreServedFromNearCacheUntilWritten() throws Exception {
+        RedisClusterAsyncCommands<String, byte[]> any = commands();
+        RedisFuture<byte[]> value = future(bytes("1"));
+        RedisFuture<String> ok = future("OK");
+        when(any.get("a")).thenReturn(value);
+        when(any.set(eq("a"), any(byte[].class))).thenReturn(ok);
+        AsyncCacheService service = service("standalone", Map.of("*", List.of(any)));
+
+        assertEquals("1", service.retrieveFromCache("a").get());
+        assertEquals("1", service.retrieveFromCache("a").get());
+        assertTrue(service.checkKey("a").get());
+        verify(any, times(1)).get("a");
+        verify(any, never()).exists(any(String[].class));
+
+        service.storeInCache("a", "2").get();
+        assertNull(nearCache.get("a"));
+        service.retrieveFromCache("a").get();
+        verify(any, times(2)).get("a");
+    }
+
+    @Test
+    void testCallsFailWhenNotConnected() {
+        RuntimeEnvironment environment = new RuntimeEnvironment();
+        environment.setRedisMode("standalone");
+        AsyncCacheService service = new AsyncCacheService(environment, shards, nearCache, CacheExpiryPolicy.parse(null, null));
+        assertThrows(IllegalStateException.class, () -> service.retrieveFromCache("a"));
+    }
+
+    @Test
+    void testSlidingKeysBypassNearCache() throws Exception {
+        RedisClusterAsyncCommands<String, byte[]> any = commands();
+        RedisFuture<byte[]> value = future(bytes("1"));
+        when(any.getex(eq("session:a"), any(GetExArgs.class))).thenReturn(value);
+        RuntimeEnvironment environment = new RuntimeEnvironment();
+        environment.setRedisMode("standalone");
+        AsyncCacheService service = new AsyncCacheService(environment, shards, nearCache, CacheExpiryPolicy.parse("session=60", "session"));
+        service.connect(Map.of("*", List.of(any)));
+
+        assertEquals("1", service.retrieveFromCache("session:a").get());
+        assertEquals("1", service.retrieveFromCache("session:a").get());
+        verify(any, times(2)).getex(eq("session:a"), any(GetExArgs.class));
+        assertNull(nearCache.get("session:a"));
+    }
+}
@@ -0,0 +1,121 @@
+package uk.ac.ed.acp.cw2.service;
+
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.GetExParams;
+import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.util.SafeEncoder;
+import uk.ac.ed.acp.cw2.Utilities.BinaryTransformStateCodec;
+import uk.ac.ed.acp.cw2.Utilities.CacheExpiryPolicy;
+import uk.ac.ed.acp.cw2.model.TransformNormal;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+// Redis is a mock, so no server is needed
+class CacheServiceTests {
+
+    private final RedisShards shards = mock(RedisShards.class);
+    private final Jedis jedis = mock(Jedis.class);
+    private final NearCache nearCache = new NearCache(true, 100, 1024 * 1024, 60000);
+    private final BinaryTransformStateCodec codec = new BinaryTransformStateCodec();
+    private final CacheService cacheService;
+
+    CacheServiceTests() {
+        nearCache.setActive(true);
+        when(shards.getResourceForKey(anyString())).thenReturn(jedis);
+        cacheService = new CacheService(null, shards, nearCache, codec, CacheExpiryPolicy.parse(null, null));
+    }
+
+    @Test
+    void testBinaryValueSurvivesNearCache() {
+        TransformNormal message = new TransformNormal();
+        message.key = "abc";
+        message.version = 300;
+        message.value = 12.75f;
+        byte[] stored = codec.encode(message);
+        when(jedis.get(SafeEncoder.encode("abc"))).thenReturn(stored);
+
+        assertArrayEquals(stored, cacheService.retrieveBytesFromCache("abc"));
+        // Served from the near cache, byte for byte
+        byte[] cached = cacheService.retrieveBytesFromCache(List.of("abc")).get("abc");
+        assertArrayEquals(stored, cached);
+        verify(jedis, times(1)).get(any(byte[].class));
+        TransformNormal decoded = codec.decode("abc", cached);
+        assertEquals(300, decoded.version);
+        assertEquals(12.75f, decoded.value);
+    }
+
+    @Test
+    void testMissingKeyIsNotCached() {
+        assertNull(cacheService.retrieveBytesFromCache("missing"));
+        assertNull(cacheService.retrieveFromCache("missing"));
+        verify(jedis, times(2)).get(any(byte[].class));
+    }
+
+    @Test
+    void testBulkStoreUsesOneMsetPerNode() {
+        Pipeline pipeline = mock(Pipeline.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        when(shards.groupByNode(any())).thenReturn(Map.of("n1", List.of("a", "b", "c")));
+        when(shards.getResource("n1")).thenReturn(jedis);
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("a", "1");
+        entries.put("b", "2");
+        entries.put("c", "3");
+
+        cacheService.storeInCache(entries);
+        verify(pipeline).mset("a", "1", "b", "2", "c", "3");
+        verify(pipeline, never()).set(anyString(), anyString());
+        verify(pipeline, never()).set(anyString(), anyString(), any(SetParams.class));
+        verify(pipeline).sync();
+    }
+
+    @Test
+    void testBulkStoreSetsExpiringKeysWithTheirTtl() {
+        Pipeline pipeline = mock(Pipeline.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        when(shards.groupByNode(any())).thenReturn(Map.of("n1", List.of("session:a", "b")));
+        when(shards.getResource("n1")).thenReturn(jedis);
+        CacheService expiring = new CacheService(null, shards, nearCache, codec, CacheExpiryPolicy.parse("session=60", null));
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("session:a", "1");
+        entries.put("b", "2");
+
+        expiring.storeInCache(entries);
+        verify(pipeline).mset("b", "2");
+        verify(pipeline).set(eq("session:a"), eq("1"), any(SetParams.class));
+    }
+
+    @Test
+    void testSlidingKeysBypassNearCache() {
+        // GETEX publishes an expire event, which would evict the entry as soon as it was cached
+        CacheService sliding = new CacheService(null, shards, nearCache, codec, CacheExpiryPolicy.parse("session=60", "session"));
+        byte[] rawKey = SafeEncoder.encode("session:a");
+        when(jedis.getEx(eq(rawKey), any(GetExParams.class))).thenReturn(SafeEncoder.encode("1"));
+        Pipeline pipeline = mock(Pipeline.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        when(shards.groupByNode(any())).thenReturn(Map.of("n1", List.of("session:a")));
+        when(shards.getResource("n1")).thenReturn(jedis);
+        @SuppressWarnings("unchecked")
+        Response<byte[]> response = mock(Response.class);
+        when(response.get()).thenReturn(SafeEncoder.encode("1"));
+        when(pipeline.getEx(eq(rawKey), any(GetExParams.class))).thenReturn(response);
+
+        assertEquals("1", sliding.retrieveFromCache("session:a"));
+        assertEquals("1", sliding.retrieveFromCache("session:a"));
+        assertArrayEquals(SafeEncoder.encode("1"), sliding.retrieveBytesFromCache(List.of("session:a")).get("session:a"));
+        // Every read renewed the TTL in Redis, and nothing was left in the near cache to go stale
+        verify(jedis, times(2)).getEx(eq(rawKey), any(GetExParams.class));
+        verify(pipeline).getEx(eq(rawKey), any(GetExParams.class));
+        assertNull(nearCache.get("session:a"));
+        assertEquals(0, nearCache.getSize());
+    }
+}
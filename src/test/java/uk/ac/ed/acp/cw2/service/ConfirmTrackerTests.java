@@ -0,0 +1,82 @@
+package uk.ac.ed.acp.cw2.service;
+
+import com.rabbitmq.client.ShutdownSignalException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConfirmTrackerTests {
+
+    private static ConfirmTracker tracker(int count) {
+        ConfirmTracker tracker = new ConfirmTracker();
+        for (int i = 1; i <= count; i++) {
+            tracker.track(i, "m" + i);
+        }
+        return tracker;
+    }
+
+    @Test
+    void testMultipleAckSettlesEverythingUpToTag() throws Exception {
+        ConfirmTracker tracker = tracker(5);
+        tracker.handleAck(3, true);
+        assertEquals(2, tracker.getOutstanding());
+        assertEquals(List.of("m4", "m5"), tracker.unconfirmed());
+        tracker.handleAck(5, true);
+        assertTrue(tracker.awaitSettled(0));
+        assertTrue(tracker.unconfirmed().isEmpty());
+    }
+
+    @Test
+    void testSingleAckSettlesOnlyItsTag() {
+        ConfirmTracker tracker = tracker(3);
+        tracker.handleAck(2, false);
+        assertEquals(List.of("m1", "m3"), tracker.unconfirmed());
+    }
+
+    @Test
+    void testNackedMessagesAreReturnedForRetry() throws Exception {
+        ConfirmTracker tracker = tracker(4);
+        tracker.handleNack(2, true);
+        tracker.handleAck(3, false);
+        tracker.handleNack(4, false);
+        assertTrue(tracker.awaitSettled(0));
+        assertEquals(3, tracker.getNacked());
+        assertEquals(List.of("m1", "m2", "m4"), tracker.unconfirmed());
+    }
+
+    @Test
+    void testAwaitTimesOutWithOutstandingMessages() throws Exception {
+        ConfirmTracker tracker = tracker(2);
+        tracker.handleAck(1, false);
+        assertFalse(tracker.awaitSettled(50));
+        assertEquals(List.of("m2"), tracker.unconfirmed());
+    }
+
+    @Test
+    void testAwaitReturnsWhenAckArrivesFromAnotherThread() throws Exception {
+        ConfirmTracker tracker = tracker(3);
+        Thread confirmer = new Thread(() -> tracker.handleAck(3, true));
+        confirmer.start();
+        assertTrue(tracker.awaitSettled(5000));
+        confirmer.join();
+    }
+
+    @Test
+    void testShutdownEndsWait() throws Exception {
+        ConfirmTracker tracker = tracker(1);
+        tracker.shutdownCompleted(new ShutdownSignalException(false, false, null, null));
+        assertFalse(tracker.awaitSettled(5000));
+    }
+
+    @Test
+    void testReturnedMessagesAreUnconfirmedDespiteAck() throws Exception {
+        ConfirmTracker tracker = tracker(2);
+        tracker.handleReturn(312, "NO_ROUTE", "", "q", null, "m2".getBytes());
+        tracker.handleAck(2, true);
+        assertTrue(tracker.awaitSettled(0));
+        assertEquals(1, tracker.getReturned());
+        assertEquals(List.of("m2"), tracker.unconfirmed());
+    }
+}
@@ -0,0 +1,92 @@
+package uk.ac.ed.acp.cw2.service;
+
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Consumers are created lazily and never polled here, so no broker is needed
+class KafkaConsumerPoolTests {
+
+    private static Properties properties() {
+        Properties properties = new Properties();
+        properties.put("bootstrap.servers", "localhost:9092");
+        properties.put("key.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
+        properties.put("value.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
+        return properties;
+    }
+
+    @Test
+    void testConsumerIsReusedAfterReturn() throws Exception {
+        try (KafkaConsumerPool pool = new KafkaConsumerPool(properties(), 2, 60000, 100)) {
+            KafkaConsumerPool.Lease first = pool.checkout("topic", "group");
+            Object consumer = first.consumer();
+            first.close();
+            try (KafkaConsumerPool.Lease second = pool.checkout("topic", "group")) {
+                assertSame(consumer, second.consumer());
+                assertEquals(1, pool.getInUse());
+            }
+            assertEquals(1, pool.getSize());
+            assertEquals(0, pool.getInUse());
+        }
+    }
+
+    @Test
+    void testBusyConsumerIsNotShared() throws Exception {
+        try (KafkaConsumerPool pool = new KafkaConsumerPool(properties(), 2, 60000, 100)) {
+            try (KafkaConsumerPool.Lease ignored = pool.checkout("topic", "group")) {
+                assertThrows(TimeoutException.class, () -> pool.checkout("topic", "group"));
+                // A different topic does not wait
+                try (KafkaConsumerPool.Lease other = pool.checkout("other", "group")) {
+                    assertEquals("other", other.key().topic());
+                }
+            }
+        }
+    }
+
+    @Test
+    void testFullPoolEvictsIdleConsumer() throws Exception {
+        try (KafkaConsumerPool pool = new KafkaConsumerPool(properties(), 1, 60000, 100)) {
+            pool.checkout("a", "group").close();
+            try (KafkaConsumerPool.Lease lease = pool.checkout("b", "group")) {
+                assertEquals(1, pool.getSize());
+                // Every consumer is in use now
+                assertThrows(TimeoutException.class, () -> pool.checkout("c", "group"));
+            }
+        }
+    }
+
+    @Test
+    void testInvalidatedConsumerIsDropped() throws Exception {
+        try (KafkaConsumerPool pool = new KafkaConsumerPool(properties(), 2, 60000, 100)) {
+            KafkaConsumerPool.Lease lease = pool.checkout("topic", "group");
+            lease.invalidate();
+            lease.close();
+            assertEquals(0, pool.getSize());
+        }
+    }
+
+    @Test
+    void testPartitionConsumersAreKeptApart() throws Exception {
+        try (KafkaConsumerPool pool = new KafkaConsumerPool(properties(), 3, 60000, 100, false)) {
+            KafkaConsumerPool.Lease first = pool.checkout(new TopicPartition("topic", 0), "group");
+            KafkaConsumerPool.Lease second = pool.checkout(new TopicPartition("topic", 1), "group");
+            assertNotSame(first.consumer(), second.consumer());
+            assertEquals(1, second.key().partition());
+            Object consumer = first.consumer();
+            first.close();
+            second.close();
+            try (KafkaConsumerPool.Lease again = pool.checkout(new TopicPartition("topic", 0), "group")) {
+                assertSame(consumer, again.consumer());
+            }
+            // The whole-topic consumer is a separate one
+            try (KafkaConsumerPool.Lease topic = pool.checkout("topic", "group")) {
+                assertEquals(KafkaConsumerPool.ANY_PARTITION, topic.key().partition());
+                assertEquals(3, pool.getSize());
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package uk.ac.ed.acp.cw2.service;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Partitions are read through MockConsumer, so no broker is needed
+class KafkaParallelReadTests {
+
+    private static ConsumerRecord<String, byte[]> record(int partition, long offset, long timestamp) {
+        return new ConsumerRecord<>("t", partition, offset, timestamp, TimestampType.CREATE_TIME, 0, 0, null,
+                ("m" + partition + "-" + offset).getBytes(StandardCharsets.UTF_8), new RecordHeaders(), Optional.empty());
+    }
+
+    private static MockConsumer<String, byte[]> consumer(TopicPartition partition, int records) {
+        MockConsumer<String, byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        consumer.assign(List.of(partition));
+        consumer.updateBeginningOffsets(Map.of(partition, 0L));
+        for (int i = 0; i < records; i++) {
+            consumer.addRecord(record(partition.partition(), i, i));
+        }
+        return consumer;
+    }
+
+    private static long committed(MockConsumer<String, byte[]> consumer, TopicPartition partition) {
+        return consumer.committed(Set.of(partition)).get(partition).offset();
+    }
+
+    @Test
+    void testMergeByPartitionKeepsOffsetOrder() {
+        List<ConsumerRecord<String, byte[]>> records = new ArrayList<>(List.of(
+                record(1, 0, 5), record(0, 1, 9), record(1, 1, 1), record(0, 0, 7)));
+        records.sort(KafkaService.mergeOrder(KafkaService.MergeOrder.PARTITION));
+        assertEquals(List.of("m0-0", "m0-1", "m1-0", "m1-1"),
+                records.stream().map(r -> new String(r.value(), StandardCharsets.UTF_8)).toList());
+    }
+
+    @Test
+    void testMergeByTimestampBreaksTiesByPartitionThenOffset() {
+        List<ConsumerRecord<String, byte[]>> records = new ArrayList<>(List.of(
+                record(1, 4, 3), record(0, 9, 3), record(0, 2, 1), record(1, 3, 3), record(2, 0, 2)));
+        records.sort(KafkaService.mergeOrder(KafkaService.MergeOrder.TIMESTAMP));
+        assertEquals(List.of("m0-2", "m2-0", "m0-9", "m1-3", "m1-4"),
+                records.stream().map(r -> new String(r.value(), StandardCharsets.UTF_8)).toList());
+    }
+
+    @Test
+    void testWorkerPastTheCountLeavesItsRecordsForTheNextRead() {
+        TopicPartition first = new TopicPartition("t", 0);
+        TopicPartition second = new TopicPartition("t", 1);
+        MockConsumer<String, byte[]> firstConsumer = consumer(first, 4);
+        MockConsumer<String, byte[]> secondConsumer = consumer(second, 4);
+        AtomicInteger accepted = new AtomicInteger();
+        KafkaService.ParallelStop stop = new KafkaService.ParallelStop();
+
+        // The first worker polls out its deadline without reaching the count, then the second reaches it
+        assertEquals(4, KafkaService.readPartition(firstConsumer, first, 5, System.currentTimeMillis() + 100, null, accepted, stop).size());
+        assertEquals(1, KafkaService.readPartition(secondConsumer, second, 5, System.currentTimeMillis() + 5000, null, accepted, stop).size());
+        assertTrue(stop.isStopped());
+        assertEquals(4, committed(firstConsumer, first));
+        // Only the record used is committed, and the consumer is rewound to the first one left
+        assertEquals(1, committed(secondConsumer, second));
+        assertEquals(1, secondConsumer.position(second));
+    }
+
+    @Test
+    void testConcurrentWorkersNeverExceedTheCount() throws Exception {
+        int messageCount = 30;
+        List<TopicPartition> partitions = List.of(new TopicPartition("t", 0), new TopicPartition("t", 1), new TopicPartition("t", 2));
+        List<MockConsumer<String, byte[]>> consumers = new ArrayList<>();
+        for (TopicPartition partition : partitions) {
+            consumers.add(consumer(partition, 50));
+        }
+        AtomicInteger accepted = new AtomicInteger();
+        KafkaService.ParallelStop stop = new KafkaService.ParallelStop();
+        long deadline = System.currentTimeMillis() + 5000;
+        ExecutorService executor = Executors.newFixedThreadPool(partitions.size());
+        try {
+            List<Future<List<ConsumerRecord<String, byte[]>>>> workers = new ArrayList<>();
+            for (int i = 0; i < partitions.size(); i++) {
+                MockConsumer<String, byte[]> consumer = consumers.get(i);
+                TopicPartition partition = partitions.get(i);
+                workers.add(executor.submit(() ->
+                        KafkaService.readPartition(consumer, partition, messageCount, deadline, null, accepted, stop)));
+            }
+            int kept = 0;
+            long committed = 0;
+            for (int i = 0; i < partitions.size(); i++) {
+                List<ConsumerRecord<String, byte[]>> records = workers.get(i).get();
+                kept += records.size();
+                // Each worker keeps a prefix of its partition, exactly what it committed
+                for (int offset = 0; offset < records.size(); offset++) {
+                    assertEquals(offset, records.get(offset).offset());
+                }
+                if (!records.isEmpty()) committed += committed(consumers.get(i), partitions.get(i));
+            }
+            assertEquals(messageCount, kept);
+            assertEquals(messageCount, committed);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testFailingWorkerStopsTheOthersBeforeReturning() {
+        TopicPartition first = new TopicPartition("t", 0);
+        TopicPartition second = new TopicPartition("t", 1);
+        MockConsumer<String, byte[]> idle = consumer(first, 0);
+        MockConsumer<String, byte[]> failing = consumer(second, 0);
+        failing.setPollException(new KafkaException("broken"));
+        AtomicInteger accepted = new AtomicInteger();
+        KafkaService.ParallelStop stop = new KafkaService.ParallelStop();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // Without a timeout the idle worker would poll forever unless the failure stops it
+            List<Future<List<ConsumerRecord<String, byte[]>>>> workers = List.of(
+                    executor.submit(() -> KafkaService.readPartition(idle, first, 5, Long.MAX_VALUE, null, accepted, stop)),
+                    executor.submit(() -> KafkaService.readPartition(failing, second, 5, Long.MAX_VALUE, null, accepted, stop)));
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () ->
+                    assertThrows(ExecutionException.class, () -> KafkaService.collect(workers, stop)));
+            assertTrue(stop.isStopped());
+            assertTrue(workers.stream().allMatch(Future::isDone));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package uk.ac.ed.acp.cw2.service;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import uk.ac.ed.acp.cw2.Utilities.MessageDecoder;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Reads go through MockConsumer, so no broker is needed
+class KafkaStreamTests {
+
+    private final TopicPartition partition = new TopicPartition("t", 0);
+    private final MockConsumer<String, byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+    private final List<String> received = new ArrayList<>();
+
+    KafkaStreamTests() {
+        consumer.assign(List.of(partition));
+        consumer.updateBeginningOffsets(Map.of(partition, 0L));
+    }
+
+    // Adds records [from, to) to the partition, as the broker would return them from the consumer's position
+    private void records(int from, int to) {
+        for (int offset = from; offset < to; offset++) {
+            consumer.addRecord(new ConsumerRecord<>("t", 0, offset, null, ("m" + offset).getBytes(StandardCharsets.UTF_8)));
+        }
+        consumer.updateEndOffsets(Map.of(partition, (long) to));
+    }
+
+    private int read(KafkaService.StartPosition start, int messageCount) {
+        return read(start, messageCount, new KafkaService.ActiveRead(consumer));
+    }
+
+    private int read(KafkaService.StartPosition start, int messageCount, KafkaService.ActiveRead active) {
+        return KafkaService.read(consumer, active, start, System.currentTimeMillis() + 5000, false, messageCount,
+                MessageDecoder.RAW, received::add, "t", "g");
+    }
+
+    private long committed() {
+        return consumer.committed(Set.of(partition)).get(partition).offset();
+    }
+
+    @Test
+    void testCommitsTheOffsetAfterTheLastMessageReturned() {
+        records(0, 5);
+        assertEquals(3, read(KafkaService.StartPosition.COMMITTED, 3));
+        assertEquals(List.of("m0", "m1", "m2"), received);
+        assertEquals(3, committed());
+    }
+
+    @Test
+    void testRecordsPolledPastTheCountAreReadNext() {
+        records(0, 5);
+        assertEquals(2, read(KafkaService.StartPosition.COMMITTED, 2));
+        // The poll fetched all five; the consumer is rewound to the first one not returned
+        assertEquals(2, consumer.position(partition));
+
+        records(0, 5);
+        assertEquals(3, read(KafkaService.StartPosition.COMMITTED, 3));
+        assertEquals(List.of("m0", "m1", "m2", "m3", "m4"), received);
+        assertEquals(5, committed());
+    }
+
+    @Test
+    void testLastStartsThatFarFromTheEnd() {
+        records(0, 5);
+        assertEquals(2, read(KafkaService.StartPosition.last(2), 2));
+        assertEquals(List.of("m3", "m4"), received);
+    }
+
+    @Test
+    void testLastIsClampedToTheBeginning() {
+        records(0, 5);
+        assertEquals(5, read(KafkaService.StartPosition.last(10), 5));
+        assertEquals(List.of("m0", "m1", "m2", "m3", "m4"), received);
+    }
+
+    @Test
+    void testCancelReturnsWhatWasReadSoFar() {
+        records(0, 3);
+        KafkaService.ActiveRead active = new KafkaService.ActiveRead(consumer);
+        // The first poll returns the three records; the second finds the read cancelled
+        consumer.schedulePollTask(() -> { });
+        consumer.schedulePollTask(active::cancel);
+        int delivered = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> read(KafkaService.StartPosition.COMMITTED, 10, active));
+
+        assertEquals(3, delivered);
+        assertTrue(active.wokenUp);
+        assertEquals(3, committed());
+    }
+}
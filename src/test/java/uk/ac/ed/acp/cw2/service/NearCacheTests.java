@@ -0,0 +1,80 @@
+package uk.ac.ed.acp.cw2.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NearCacheTests {
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static NearCache activeCache(int maxEntries, long maxBytes, long ttlMs) {
+        NearCache nearCache = new NearCache(true, maxEntries, maxBytes, ttlMs);
+        nearCache.setActive(true);
+        return nearCache;
+    }
+
+    @Test
+    void testHitAndMiss() {
+        NearCache nearCache = activeCache(10, 1024 * 1024, 60000);
+        assertNull(nearCache.get("a"));
+        nearCache.put("a", bytes("1"), nearCache.stamp("a"));
+        assertArrayEquals(bytes("1"), nearCache.get("a"));
+        assertEquals(1, nearCache.getHits());
+        assertEquals(1, nearCache.getMisses());
+    }
+
+    @Test
+    void testInvalidatedWhileFetchingIsNotCached() {
+        NearCache nearCache = activeCache(10, 1024 * 1024, 60000);
+        long stamp = nearCache.stamp("a");
+        nearCache.invalidate("a");
+        nearCache.put("a", bytes("stale"), stamp);
+        assertNull(nearCache.get("a"));
+    }
+
+    @Test
+    void testEntryBoundEvictsLeastRecentlyUsed() {
+        NearCache nearCache = activeCache(2, 1024 * 1024, 60000);
+        nearCache.put("a", bytes("1"), nearCache.stamp("a"));
+        nearCache.put("b", bytes("2"), nearCache.stamp("b"));
+        nearCache.get("a");
+        nearCache.put("c", bytes("3"), nearCache.stamp("c"));
+        assertNotNull(nearCache.get("a"));
+        assertNull(nearCache.get("b"));
+        assertEquals(1, nearCache.getEvictions());
+    }
+
+    @Test
+    void testByteBound() {
+        NearCache nearCache = activeCache(100, 200, 60000);
+        nearCache.put("a", new byte[100], nearCache.stamp("a"));
+        nearCache.put("b", new byte[100], nearCache.stamp("b"));
+        assertEquals(1, nearCache.getSize());
+        assertTrue(nearCache.getBytes() <= 200);
+    }
+
+    @Test
+    void testExpiredEntriesAreMisses() throws Exception {
+        NearCache nearCache = activeCache(10, 1024 * 1024, 1);
+        nearCache.put("a", bytes("1"), nearCache.stamp("a"));
+        Thread.sleep(5);
+        assertNull(nearCache.get("a"));
+        assertEquals(1, nearCache.getEvictions());
+    }
+
+    @Test
+    void testSuspendedCacheServesNothing() {
+        NearCache nearCache = activeCache(10, 1024 * 1024, 60000);
+        nearCache.put("a", bytes("1"), nearCache.stamp("a"));
+        nearCache.setActive(false);
+        assertNull(nearCache.get("a"));
+        nearCache.put("a", bytes("1"), nearCache.stamp("a"));
+        nearCache.setActive(true);
+        assertNull(nearCache.get("a"));
+    }
+}
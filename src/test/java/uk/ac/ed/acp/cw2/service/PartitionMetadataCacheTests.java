@@ -0,0 +1,52 @@
+package uk.ac.ed.acp.cw2.service;
+
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartitionMetadataCacheTests {
+
+    private static final List<TopicPartition> PARTITIONS = List.of(new TopicPartition("topic", 0), new TopicPartition("topic", 1));
+
+    @Test
+    void testPartitionsAreLookedUpOnceWithinRefresh() {
+        PartitionMetadataCache cache = new PartitionMetadataCache(60000);
+        AtomicInteger lookups = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(PARTITIONS, cache.partitions("topic", topic -> {
+                lookups.incrementAndGet();
+                return PARTITIONS;
+            }));
+        }
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    void testStalePartitionsAreLookedUpAgain() {
+        PartitionMetadataCache cache = new PartitionMetadataCache(0);
+        AtomicInteger lookups = new AtomicInteger();
+        cache.partitions("topic", topic -> { lookups.incrementAndGet(); return PARTITIONS; });
+        cache.partitions("topic", topic -> { lookups.incrementAndGet(); return PARTITIONS; });
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    void testMissingTopicIsNotCached() {
+        PartitionMetadataCache cache = new PartitionMetadataCache(60000);
+        assertTrue(cache.partitions("topic", topic -> null).isEmpty());
+        // Once the topic exists it is found straight away
+        assertEquals(PARTITIONS, cache.partitions("topic", topic -> PARTITIONS));
+    }
+
+    @Test
+    void testInvalidateForcesLookup() {
+        PartitionMetadataCache cache = new PartitionMetadataCache(60000);
+        cache.partitions("topic", topic -> PARTITIONS);
+        cache.invalidate("topic");
+        assertEquals(List.of(new TopicPartition("topic", 0)), cache.partitions("topic", topic -> List.of(new TopicPartition("topic", 0))));
+    }
+}
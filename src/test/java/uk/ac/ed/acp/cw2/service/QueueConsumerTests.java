@@ -0,0 +1,171 @@
+package uk.ac.ed.acp.cw2.service;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.junit.jupiter.api.Test;
+import uk.ac.ed.acp.cw2.Utilities.MessageDecoder;
+import uk.ac.ed.acp.cw2.model.ReceiveResult.StopReason;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+// Deliveries are handed to the consumer directly, as the channel's dispatch thread would
+class QueueConsumerTests {
+
+    private static void deliver(QueueConsumer<?> consumer, long tag, String body) throws Exception {
+        consumer.handleDelivery("tag", new Envelope(tag, false, "", "queue"), null, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testPrefetchIsCappedAtMessageCount() {
+        Channel channel = mock(Channel.class);
+        assertEquals(10, new QueueConsumer<>(channel, MessageDecoder.RAW, 10, 100).getPrefetch());
+        assertEquals(100, new QueueConsumer<>(channel, MessageDecoder.RAW, 0, 100).getPrefetch());
+    }
+
+    @Test
+    void testAcksAreBatchedWithMultiple() throws Exception {
+        Channel channel = mock(Channel.class);
+        QueueConsumer<String> consumer = new QueueConsumer<>(channel, MessageDecoder.RAW, 0, 4);
+        for (int tag = 1; tag <= 5; tag++) {
+            deliver(consumer, tag, "m" + tag);
+        }
+        verify(channel).basicAck(2, true);
+        verify(channel).basicAck(4, true);
+        verify(channel, never()).basicAck(5, true);
+        // The remainder is acked once the cancel is confirmed
+        consumer.handleCancelOk("tag");
+        verify(channel).basicAck(5, true);
+        assertEquals(5, consumer.getMessages().size());
+    }
+
+    @Test
+    void testDeliveriesPastCountAreRequeued() throws Exception {
+        Channel channel = mock(Channel.class);
+        QueueConsumer<String> consumer = new QueueConsumer<>(channel, MessageDecoder.RAW, 2, 100);
+        deliver(consumer, 1, "a");
+        deliver(consumer, 2, "b");
+        deliver(consumer, 3, "c");
+        assertEquals(StopReason.COUNT, consumer.await(0));
+        verify(channel).basicNack(3, false, true);
+        consumer.handleCancelOk("tag");
+        verify(channel).basicAck(2, true);
+        assertEquals(List.of("a", "b"), consumer.getMessages());
+        assertEquals(1, consumer.getRequeued());
+    }
+
+    @Test
+    void testRejectedMessagesAreAckedButNotCounted() throws Exception {
+        Channel channel = mock(Channel.class);
+        MessageDecoder<String> decoder = message -> message.startsWith("ok") ? message : null;
+        QueueConsumer<String> consumer = new QueueConsumer<>(channel, decoder, 2, 100);
+        deliver(consumer, 1, "bad");
+        deliver(consumer, 2, "ok1");
+        deliver(consumer, 3, "ok2");
+        consumer.handleCancelOk("tag");
+        verify(channel).basicAck(3, true);
+        assertEquals(List.of("ok1", "ok2"), consumer.getMessages());
+    }
+
+    @Test
+    void testStopWaitsForCancelOk() throws Exception {
+        Channel channel = mock(Channel.class);
+        QueueConsumer<String> consumer = new QueueConsumer<>(channel, MessageDecoder.RAW, 0, 100);
+        consumer.handleConsumeOk("tag");
+        doAnswer(invocation -> {
+            consumer.handleCancelOk("tag");
+            return null;
+        }).when(channel).basicCancel("tag");
+        deliver(consumer, 1, "a");
+        assertTrue(consumer.stop(1000));
+        verify(channel).basicAck(1, true);
+    }
+
+    @Test
+    void testStopTimesOutWithoutCancelOk() throws Exception {
+        Channel channel = mock(Channel.class);
+        QueueConsumer<String> consumer = new QueueConsumer<>(channel, MessageDecoder.RAW, 0, 100);
+        consumer.handleConsumeOk("tag");
+        assertFalse(consumer.stop(50));
+    }
+
+    @Test
+    void testByteBudgetStopsBeforeMessageThatWouldExceedIt() throws Exception {
+        Channel channel = mock(Channel.class);
+        QueueConsumer<String> consumer = new QueueConsumer<>(channel, MessageDecoder.RAW, 0, 10, 100);
+        deliver(consumer, 1, "aaaa");
+        deliver(consumer, 2, "bbbb");
+        deliver(consumer, 3, "cccc");
+        assertEquals(StopReason.BYTES, consumer.await(5000));
+        verify(channel).basicNack(3, false, true);
+        assertEquals(List.of("aaaa", "bbbb"), consumer.getMessages());
+        assertEquals(8, consumer.getBytes());
+    }
+
+    @Test
+    void testFirstMessageIsAcceptedWhateverItsSize() throws Exception {
+        Channel channel = mock(Channel.class);
+        QueueConsumer<String> consumer = new QueueConsumer<>(channel, MessageDecoder.RAW, 0, 2, 100);
+        deliver(consumer, 1, "larger than the budget");
+        deliver(consumer, 2, "x");
+        assertEquals(List.of("larger than the budget"), consumer.getMessages());
+        assertEquals(StopReason.BYTES, consumer.getStopReason());
+    }
+
+    @Test
+    void testCountReturnsBeforeDeadline() throws Exception {
+        Channel channel = mock(Channel.class);
+        QueueConsumer<String> consumer = new QueueConsumer<>(channel, MessageDecoder.RAW, 1, 100);
+        deliver(consumer, 1, "a");
+        long start = System.currentTimeMillis();
+        assertEquals(StopReason.COUNT, consumer.await(10000));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    @Test
+    void testDeadlineStopsReadAndRequeuesLateDeliveries() throws Exception {
+        Channel channel = mock(Channel.class);
+        QueueConsumer<String> consumer = new QueueConsumer<>(channel, MessageDecoder.RAW, 5, 100);
+        deliver(consumer, 1, "a");
+        assertEquals(StopReason.DEADLINE, consumer.await(50));
+        deliver(consumer, 2, "b");
+        verify(channel).basicNack(2, false, true);
+        assertEquals(List.of("a"), consumer.getMessages());
+    }
+
+    @Test
+    void testShutdownMidReadKeepsOnlyAckedMessages() throws Exception {
+        Channel channel = mock(Channel.class);
+        QueueConsumer<String> consumer = new QueueConsumer<>(channel, MessageDecoder.RAW, 0, 4);
+        consumer.handleConsumeOk("tag");
+        deliver(consumer, 1, "m1");
+        deliver(consumer, 2, "m2");
+        deliver(consumer, 3, "m3");
+        verify(channel).basicAck(2, true);
+        // The broker requeues m3 with the channel, so the next reader gets it
+        consumer.handleShutdownSignal("tag", new ShutdownSignalException(false, false, null, channel));
+        assertEquals(StopReason.CANCELLED, consumer.await(0));
+        assertTrue(consumer.stop(1000));
+        verify(channel, never()).basicCancel(anyString());
+        assertTrue(consumer.isChannelLost());
+        assertEquals(List.of("m1", "m2"), consumer.getMessages());
+        assertEquals(4, consumer.getBytes());
+    }
+
+    @Test
+    void testShutdownAfterCancelOkKeepsEverything() throws Exception {
+        Channel channel = mock(Channel.class);
+        QueueConsumer<String> consumer = new QueueConsumer<>(channel, MessageDecoder.RAW, 3, 100);
+        deliver(consumer, 1, "a");
+        deliver(consumer, 2, "b");
+        deliver(consumer, 3, "c");
+        consumer.handleCancelOk("tag");
+        consumer.handleShutdownSignal("tag", new ShutdownSignalException(false, false, null, channel));
+        assertFalse(consumer.isChannelLost());
+        assertEquals(List.of("a", "b", "c"), consumer.getMessages());
+    }
+}
@@ -0,0 +1,134 @@
+package uk.ac.ed.acp.cw2.service;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+import com.rabbitmq.client.ShutdownListener;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import uk.ac.ed.acp.cw2.data.RuntimeEnvironment;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+// Connections and channels are mocks, so no broker is needed
+class QueueTopologyTests {
+
+    private static Channel channelOn(Connection connection) {
+        Channel channel = mock(Channel.class);
+        when(channel.getConnection()).thenReturn(connection);
+        return channel;
+    }
+
+    @Test
+    void testQueueIsDeclaredOncePerConnection() throws Exception {
+        QueueTopology topology = new QueueTopology(false, null);
+        Connection connection = mock(Connection.class);
+        Channel first = channelOn(connection);
+        Channel second = channelOn(connection);
+        topology.declare(first, "q");
+        topology.declare(second, "q");
+        topology.declare(first, "q");
+        verify(first).queueDeclare("q", false, false, false, null);
+        verify(second, never()).queueDeclare(anyString(), anyBoolean(), anyBoolean(), anyBoolean(), any());
+        // Another connection declares it for itself
+        Channel other = channelOn(mock(Connection.class));
+        topology.declare(other, "q");
+        verify(other).queueDeclare("q", false, false, false, null);
+        assertEquals(2, topology.getDeclared());
+    }
+
+    @Test
+    void testForgottenQueueIsDeclaredAgain() throws Exception {
+        QueueTopology topology = new QueueTopology(false, null);
+        Channel channel = channelOn(mock(Connection.class));
+        topology.declare(channel, "q");
+        topology.forget("q");
+        topology.declare(channel, "q");
+        verify(channel, times(2)).queueDeclare("q", false, false, false, null);
+    }
+
+    @Test
+    void testShutdownClearsDeclarations() throws Exception {
+        QueueTopology topology = new QueueTopology(false, null);
+        Connection connection = mock(Connection.class);
+        Channel channel = channelOn(connection);
+        topology.declare(channel, "q");
+        ArgumentCaptor<ShutdownListener> listener = ArgumentCaptor.forClass(ShutdownListener.class);
+        verify(connection).addShutdownListener(listener.capture());
+        listener.getValue().shutdownCompleted(null);
+        // The connection does not recover, so nothing is kept for it
+        assertEquals(0, topology.getDeclared());
+        topology.declare(channel, "q");
+        verify(channel, times(2)).queueDeclare("q", false, false, false, null);
+    }
+
+    @Test
+    void testShutdownForgetsOnlyConnectionsThatDoNotRecover() throws Exception {
+        QueueTopology topology = new QueueTopology(false, null);
+        Connection closed = mock(Connection.class);
+        Connection recovering = mock(Connection.class, withSettings().extraInterfaces(Recoverable.class));
+        topology.declare(channelOn(closed), "q");
+        Channel channel = channelOn(recovering);
+        topology.declare(channel, "q");
+        ArgumentCaptor<ShutdownListener> closedListener = ArgumentCaptor.forClass(ShutdownListener.class);
+        verify(closed).addShutdownListener(closedListener.capture());
+        ArgumentCaptor<ShutdownListener> recoveringListener = ArgumentCaptor.forClass(ShutdownListener.class);
+        verify(recovering).addShutdownListener(recoveringListener.capture());
+
+        closedListener.getValue().shutdownCompleted(null);
+        recoveringListener.getValue().shutdownCompleted(null);
+        // The recovering connection keeps its entry and listeners, and declares again once it is back
+        topology.declare(channel, "q");
+        verify(channel, times(2)).queueDeclare("q", false, false, false, null);
+        verify(recovering, times(1)).addShutdownListener(any());
+        assertEquals(1, topology.getDeclared());
+    }
+
+    @Test
+    void testRecoveryClearsDeclarations() throws Exception {
+        QueueTopology topology = new QueueTopology(false, null);
+        Connection connection = mock(Connection.class, withSettings().extraInterfaces(Recoverable.class));
+        Channel channel = channelOn(connection);
+        topology.declare(channel, "q");
+        ArgumentCaptor<RecoveryListener> listener = ArgumentCaptor.forClass(RecoveryListener.class);
+        verify((Recoverable) connection).addRecoveryListener(listener.capture());
+        listener.getValue().handleRecovery((Recoverable) connection);
+        topology.declare(channel, "q");
+        verify(channel, times(2)).queueDeclare("q", false, false, false, null);
+    }
+
+    @Test
+    void testArgumentsFromEnvironment() throws Exception {
+        RuntimeEnvironment environment = new RuntimeEnvironment();
+        environment.setRabbitMqQueueType("classic");
+        environment.setRabbitMqQueueLazy(true);
+        environment.setRabbitMqQueueMaxLength(1000);
+        Channel channel = channelOn(mock(Connection.class));
+        QueueTopology.fromEnvironment(environment).declare(channel, "q");
+        verify(channel).queueDeclare("q", false, false, false, Map.of("x-queue-mode", "lazy", "x-max-length", 1000L));
+    }
+
+    @Test
+    void testQuorumQueuesAreDurable() throws Exception {
+        RuntimeEnvironment environment = new RuntimeEnvironment();
+        environment.setRabbitMqQueueType("quorum");
+        environment.setRabbitMqQueueLazy(true);
+        Channel channel = channelOn(mock(Connection.class));
+        QueueTopology.fromEnvironment(environment).declare(channel, "q");
+        verify(channel).queueDeclare("q", true, false, false, Map.of("x-queue-type", "quorum"));
+    }
+
+    @Test
+    void testDefaultsDeclareWithoutArguments() throws Exception {
+        RuntimeEnvironment environment = new RuntimeEnvironment();
+        environment.setRabbitMqQueueType("classic");
+        Channel channel = channelOn(mock(Connection.class));
+        QueueTopology.fromEnvironment(environment).declare(channel, "q");
+        verify(channel).queueDeclare("q", false, false, false, null);
+    }
+}
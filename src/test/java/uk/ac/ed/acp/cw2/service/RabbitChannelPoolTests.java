@@ -0,0 +1,95 @@
+package uk.ac.ed.acp.cw2.service;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+// Connections and channels are mocks, so no broker is needed
+class RabbitChannelPoolTests {
+
+    private static Connection connection() throws Exception {
+        Connection connection = mock(Connection.class);
+        when(connection.isOpen()).thenReturn(true);
+        when(connection.createChannel()).thenAnswer(invocation -> {
+            Channel channel = mock(Channel.class);
+            when(channel.isOpen()).thenReturn(true);
+            return channel;
+        });
+        return connection;
+    }
+
+    @Test
+    void testChannelIsReusedAfterReturn() throws Exception {
+        try (RabbitChannelPool pool = new RabbitChannelPool(List.of(connection()), 2, 100)) {
+            RabbitChannelPool.Lease first = pool.borrow();
+            Channel channel = first.channel();
+            assertEquals(1, pool.getActive());
+            first.close();
+            try (RabbitChannelPool.Lease second = pool.borrow()) {
+                assertSame(channel, second.channel());
+            }
+            assertEquals(1, pool.getCreated());
+            assertEquals(1, pool.getIdle());
+            assertEquals(0, pool.getActive());
+        }
+    }
+
+    @Test
+    void testConcurrentBorrowsGetDifferentChannels() throws Exception {
+        try (RabbitChannelPool pool = new RabbitChannelPool(List.of(connection()), 2, 100)) {
+            try (RabbitChannelPool.Lease first = pool.borrow(); RabbitChannelPool.Lease second = pool.borrow()) {
+                assertNotSame(first.channel(), second.channel());
+                // The pool is full until one is returned
+                assertThrows(TimeoutException.class, pool::borrow);
+            }
+        }
+    }
+
+    @Test
+    void testClosedChannelIsReplaced() throws Exception {
+        try (RabbitChannelPool pool = new RabbitChannelPool(List.of(connection()), 2, 100)) {
+            Channel channel;
+            try (RabbitChannelPool.Lease lease = pool.borrow()) {
+                channel = lease.channel();
+            }
+            when(channel.isOpen()).thenReturn(false);
+            try (RabbitChannelPool.Lease lease = pool.borrow()) {
+                assertNotSame(channel, lease.channel());
+            }
+            assertEquals(1, pool.getDiscarded());
+        }
+    }
+
+    @Test
+    void testInvalidatedChannelIsClosed() throws Exception {
+        try (RabbitChannelPool pool = new RabbitChannelPool(List.of(connection()), 2, 100)) {
+            Channel channel;
+            try (RabbitChannelPool.Lease lease = pool.borrow()) {
+                channel = lease.channel();
+                lease.invalidate();
+            }
+            verify(channel).close();
+            assertEquals(0, pool.getIdle());
+        }
+    }
+
+    @Test
+    void testChannelsAreSpreadOverConnections() throws Exception {
+        Connection first = connection();
+        Connection second = connection();
+        try (RabbitChannelPool pool = new RabbitChannelPool(List.of(first, second), 4, 100)) {
+            try (RabbitChannelPool.Lease a = pool.borrow(); RabbitChannelPool.Lease b = pool.borrow()) {
+                verify(first).createChannel();
+                verify(second).createChannel();
+            }
+        }
+        verify(first).close();
+        verify(second).close();
+    }
+}
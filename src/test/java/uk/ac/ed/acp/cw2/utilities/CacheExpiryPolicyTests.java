@@ -0,0 +1,49 @@
+package uk.ac.ed.acp.cw2.utilities;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.ed.acp.cw2.Utilities.CacheExpiryPolicy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheExpiryPolicyTests {
+
+    @Test
+    void testNamespaceOf() {
+        assertEquals("transform", CacheExpiryPolicy.namespaceOf("transform:ABCD"));
+        assertEquals("a", CacheExpiryPolicy.namespaceOf("a:b:c"));
+        assertEquals(CacheExpiryPolicy.DEFAULT_NAMESPACE, CacheExpiryPolicy.namespaceOf("ABCD"));
+        assertEquals(CacheExpiryPolicy.DEFAULT_NAMESPACE, CacheExpiryPolicy.namespaceOf(":ABCD"));
+    }
+
+    @Test
+    void testNothingExpiresByDefault() {
+        CacheExpiryPolicy policy = CacheExpiryPolicy.parse("", "");
+        assertEquals(0, policy.ttlSeconds("ABCD"));
+        assertNull(policy.setParams("ABCD"));
+        assertNull(policy.getExParams("ABCD"));
+    }
+
+    @Test
+    void testNamespaceTtlAndFallback() {
+        CacheExpiryPolicy policy = CacheExpiryPolicy.parse("transform=60, *=3600", null);
+        assertEquals(60, policy.ttlSeconds("transform:ABCD"));
+        assertEquals(3600, policy.ttlSeconds("other:ABCD"));
+        assertEquals(3600, policy.ttlSeconds("ABCD"));
+        assertNotNull(policy.setParams("ABCD"));
+    }
+
+    @Test
+    void testSlidingNeedsTtl() {
+        CacheExpiryPolicy policy = CacheExpiryPolicy.parse("transform=60", "transform,session");
+        assertTrue(policy.isSliding("transform:ABCD"));
+        assertNotNull(policy.getExParams("transform:ABCD"));
+        assertFalse(policy.isSliding("session:ABCD"));
+        assertFalse(policy.isSliding("ABCD"));
+    }
+
+    @Test
+    void testInvalidTtlIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> CacheExpiryPolicy.parse("transform", null));
+        assertThrows(NumberFormatException.class, () -> CacheExpiryPolicy.parse("transform=soon", null));
+    }
+}
@@ -0,0 +1,57 @@
+package uk.ac.ed.acp.cw2.utilities;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.ed.acp.cw2.Utilities.ConsistentHashRing;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConsistentHashRingTests {
+
+    private static final List<String> NODES = List.of("localhost:6379", "localhost:6380", "localhost:6381");
+
+    @Test
+    void testKeysSpreadOverAllNodes() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(NODES);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 30000; i++) {
+            counts.merge(ring.nodeFor("key-" + i), 1, Integer::sum);
+        }
+        assertEquals(NODES.size(), counts.size());
+        // Each node should hold roughly a third of the keys
+        counts.values().forEach(count -> assertTrue(count > 7000 && count < 13000, "unbalanced: " + counts));
+    }
+
+    @Test
+    void testAddingNodeOnlyMovesItsKeys() {
+        ConsistentHashRing<String> before = new ConsistentHashRing<>(NODES);
+        ConsistentHashRing<String> after = new ConsistentHashRing<>(List.of("localhost:6379", "localhost:6380", "localhost:6381", "localhost:6382"));
+        for (int i = 0; i < 10000; i++) {
+            String key = "key-" + i;
+            String node = after.nodeFor(key);
+            if (!node.equals("localhost:6382")) {
+                assertEquals(before.nodeFor(key), node);
+            }
+        }
+    }
+
+    @Test
+    void testHashTagKeepsKeysTogether() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(NODES);
+        String node = ring.nodeFor("{user1}.a");
+        for (int i = 0; i < 100; i++) {
+            assertEquals(node, ring.nodeFor("{user1}.field" + i));
+        }
+        assertEquals("user1", ConsistentHashRing.hashTag("x{user1}y"));
+        assertEquals("{}abc", ConsistentHashRing.hashTag("{}abc"));
+        assertEquals("abc", ConsistentHashRing.hashTag("abc"));
+    }
+
+    @Test
+    void testEmptyRingIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing<String>(List.of()));
+    }
+}
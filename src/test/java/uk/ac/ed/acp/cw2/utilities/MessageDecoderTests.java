@@ -0,0 +1,75 @@
+package uk.ac.ed.acp.cw2.utilities;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.ed.acp.cw2.Utilities.MessageDecoder;
+import uk.ac.ed.acp.cw2.Utilities.Parser;
+import uk.ac.ed.acp.cw2.domain.ProcMessage;
+import uk.ac.ed.acp.cw2.domain.ProcMessageDeserializer;
+import uk.ac.ed.acp.cw2.model.TransformMessage;
+import uk.ac.ed.acp.cw2.model.TransformNormal;
+import uk.ac.ed.acp.cw2.model.TransformTombstone;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageDecoderTests {
+
+    @Test
+    void testRequiringKeepsValidMessagesUnchanged() {
+        MessageDecoder<String> decoder = MessageDecoder.requiring(List.of("key"));
+        assertEquals("{\"key\":\"ABC\"}", decoder.decode("{\"key\":\"ABC\"}"));
+        assertNull(decoder.decode("{\"other\":1}"));
+        assertNull(decoder.decode("not json"));
+        assertSame(MessageDecoder.RAW, MessageDecoder.requiring(null));
+    }
+
+    @Test
+    void testProcMessageDecodeKeepsOnlyRequiredFields() {
+        ProcMessage message = ProcMessage.decode("{\"uid\":\"s1\",\"key\":\"ABC\",\"comment\":\"c\",\"value\":1.5,\"extra\":true}");
+        assertNotNull(message);
+        assertEquals("ABC", message.getKey());
+        assertEquals(1.5f, message.getValue());
+        assertFalse(message.jsonData.has("extra"));
+    }
+
+    @Test
+    void testProcMessageDecodeRejectsInvalidMessages() {
+        assertNull(ProcMessage.decode("{\"uid\":\"s1\",\"key\":\"ABC\",\"value\":1.5}"));
+        assertNull(ProcMessage.decode("[1,2]"));
+        assertNull(ProcMessage.decode("not json"));
+    }
+
+    @Test
+    void testTransformDecode() {
+        TransformMessage normal = Parser.decodeTransformMessage("{\"key\":\"ABC\",\"version\":2,\"value\":3.5}");
+        assertInstanceOf(TransformNormal.class, normal);
+        assertEquals(2, ((TransformNormal) normal).version);
+        TransformMessage tombstone = Parser.decodeTransformMessage("{\"key\":\"ABC\",\"TOTAL\":7}");
+        assertInstanceOf(TransformTombstone.class, tombstone);
+        assertEquals(7.0f, tombstone.value);
+        assertNull(Parser.decodeTransformMessage("{\"value\":1}"));
+        assertNull(Parser.decodeTransformMessage("{\"key\":\"ABC\",\"version\":1,\"value\":\"x\"}"));
+    }
+
+    @Test
+    void testDeserializerMatchesTreeDecode() {
+        String json = "{\"extra\":{\"nested\":[1,2]},\"value\":12,\"comment\":\"c\",\"key\":\"ABCD\",\"uid\":\"s1\"}";
+        ProcMessage streamed = new ProcMessageDeserializer().deserialize("topic", json.getBytes(StandardCharsets.UTF_8));
+        assertNotNull(streamed);
+        // Same fields, types and order as the tree based decoder
+        assertEquals(ProcMessage.decode(json).jsonData.toString(), streamed.jsonData.toString());
+        assertEquals(12.0f, streamed.getValue());
+    }
+
+    @Test
+    void testDeserializerRejectsInvalidRecords() {
+        ProcMessageDeserializer deserializer = new ProcMessageDeserializer();
+        assertNull(deserializer.deserialize("topic", null));
+        assertNull(deserializer.decode("{\"uid\":\"s1\",\"key\":\"ABC\",\"value\":1.5}"));
+        assertNull(deserializer.decode("[{\"uid\":\"s1\"}]"));
+        assertNull(deserializer.decode("{\"uid\":\"s1\",\"key\":"));
+        assertNull(deserializer.decode("not json"));
+    }
+}
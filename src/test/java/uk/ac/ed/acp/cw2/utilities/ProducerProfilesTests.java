@@ -0,0 +1,52 @@
+package uk.ac.ed.acp.cw2.utilities;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.ed.acp.cw2.Utilities.ProducerProfiles;
+import uk.ac.ed.acp.cw2.model.ProducerProfile;
+
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProducerProfilesTests {
+
+    @Test
+    void testBuiltInProfiles() {
+        ProducerProfiles profiles = new ProducerProfiles("", "");
+        assertEquals("lz4", profiles.get("bulk").compressionType);
+        assertEquals(0, profiles.get("low-latency").lingerMs);
+        assertEquals(ProducerProfiles.DEFAULT_PROFILE, profiles.forTopic("any").name);
+    }
+
+    @Test
+    void testOverridesAndNewProfiles() {
+        ProducerProfiles profiles = new ProducerProfiles(
+                "{\"bulk\": {\"compressionType\": \"zstd\"}, \"archive\": {\"batchSize\": 1048576}}",
+                "events=bulk, audit=archive");
+        ProducerProfile bulk = profiles.get("bulk");
+        assertEquals("zstd", bulk.compressionType);
+        assertEquals(50, bulk.lingerMs);
+        ProducerProfile archive = profiles.get("archive");
+        assertEquals(1048576, archive.batchSize);
+        assertEquals("none", archive.compressionType);
+        assertSame(bulk, profiles.forTopic("events"));
+        assertSame(archive, profiles.forTopic("audit"));
+    }
+
+    @Test
+    void testAppliedProperties() {
+        Properties properties = new Properties();
+        new ProducerProfiles("", "").get("bulk").applyTo(properties);
+        assertEquals("lz4", properties.get("compression.type"));
+        assertEquals("262144", properties.get("batch.size"));
+        assertEquals("50", properties.get("linger.ms"));
+    }
+
+    @Test
+    void testInvalidSettingsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new ProducerProfiles("{\"bulk\": {\"maxInFlight\": 10}}", ""));
+        assertThrows(IllegalArgumentException.class, () -> new ProducerProfiles("{\"bulk\": {\"unknown\": 1}}", ""));
+        assertThrows(IllegalArgumentException.class, () -> new ProducerProfiles("", "events=missing"));
+        assertThrows(IllegalArgumentException.class, () -> new ProducerProfiles("", "").get("missing"));
+    }
+}
@@ -0,0 +1,78 @@
+package uk.ac.ed.acp.cw2.utilities;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.ed.acp.cw2.Utilities.BinaryTransformStateCodec;
+import uk.ac.ed.acp.cw2.Utilities.JsonTransformStateCodec;
+import uk.ac.ed.acp.cw2.Utilities.TransformStateCodec;
+import uk.ac.ed.acp.cw2.model.TransformNormal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransformStateCodecTests {
+
+    private static TransformNormal message(String key, int version, float value) {
+        TransformNormal message = new TransformNormal();
+        message.key = key;
+        message.version = version;
+        message.value = value;
+        return message;
+    }
+
+    private static void assertSameState(TransformNormal expected, TransformNormal actual) {
+        assertNotNull(actual);
+        assertEquals(expected.key, actual.key);
+        assertEquals(expected.version, actual.version);
+        assertEquals(expected.value, actual.value);
+    }
+
+    @Test
+    void testJsonRoundTrip() {
+        TransformStateCodec codec = new JsonTransformStateCodec();
+        TransformNormal message = message("abc", 3, 12.5f);
+        assertSameState(message, codec.decode("abc", codec.encode(message)));
+    }
+
+    @Test
+    void testBinaryRoundTrip() {
+        TransformStateCodec codec = new BinaryTransformStateCodec();
+        TransformNormal message = message("abc", Integer.MAX_VALUE, -0.1f);
+        byte[] encoded = codec.encode(message);
+        assertEquals(BinaryTransformStateCodec.ENCODED_LENGTH, encoded.length);
+        assertEquals(BinaryTransformStateCodec.FORMAT_MARKER, encoded[0]);
+        assertSameState(message, codec.decode("abc", encoded));
+    }
+
+    @Test
+    void testBinaryCodecReadsLegacyJson() {
+        TransformNormal message = message("abc", 7, 1.5f);
+        byte[] legacy = new JsonTransformStateCodec().encode(message);
+        assertSameState(message, new BinaryTransformStateCodec().decode("abc", legacy));
+    }
+
+    @Test
+    void testTruncatedBinaryValueIsRejected() {
+        TransformStateCodec codec = new BinaryTransformStateCodec();
+        byte[] truncated = Arrays.copyOf(codec.encode(message("abc", 3, 12.5f)), 5);
+        assertNull(codec.decode("abc", truncated));
+    }
+
+    @Test
+    void testCorruptValuesAreRejected() {
+        byte[] garbage = {(byte) 0xB1, 0x00, (byte) 0xFF};
+        assertNull(new BinaryTransformStateCodec().decode("abc", garbage));
+        assertNull(new JsonTransformStateCodec().decode("abc", garbage));
+        assertNull(new JsonTransformStateCodec().decode("abc", "{\"version\":".getBytes(StandardCharsets.UTF_8)));
+        assertNull(new BinaryTransformStateCodec().decode("abc", null));
+    }
+
+    @Test
+    void testForName() {
+        assertInstanceOf(JsonTransformStateCodec.class, TransformStateCodec.forName(null));
+        assertInstanceOf(JsonTransformStateCodec.class, TransformStateCodec.forName("json"));
+        assertInstanceOf(BinaryTransformStateCodec.class, TransformStateCodec.forName("BINARY"));
+        assertThrows(IllegalArgumentException.class, () -> TransformStateCodec.forName("protobuf"));
+    }
+}